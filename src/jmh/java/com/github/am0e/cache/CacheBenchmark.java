@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.am0e.cache.impl.HashMapCache;
+import com.github.am0e.cache.impl.SimpleMemCache;
+import com.github.am0e.cache.impl.SimpleMemCacheBean;
+
+/**
+ * Throughput of the caches under read heavy (90% reads), write heavy (90%
+ * writes) and mixed (50%) workloads, with Zipfian or uniform keys. The
+ * caches are SimpleMemCache with strong values, soft referenced values and a
+ * TTL, and HashMapCache over a ConcurrentHashMap.
+ * 
+ * {@link #main} runs the suite at 1, 2, 4 .. N threads with the gc profiler
+ * to report the allocation rate.
+ * 
+ * <pre>
+ * mvn -P jmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.am0e.cache.CacheBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int ITEMS = 1 << 16;
+    private static final int COUNT = 1 << 20;
+    private static final int MASK = COUNT - 1;
+
+    @Param({ "simple", "soft", "ttl", "hashmap" })
+    String cache;
+
+    @Param({ "zipf", "uniform" })
+    String distribution;
+
+    ICache<Integer> target;
+    Integer[] keys;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = KeyDistribution.generate(distribution, ITEMS, COUNT, 42);
+        target = create(cache);
+        for (int i = 0; i < ITEMS; i++) {
+            target.put(i, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.clearCache();
+    }
+
+    private static ICache<Integer> create(String cache) {
+        if (cache.equals("hashmap")) {
+            return new HashMapCache<>(new ConcurrentHashMap<>());
+        }
+        SimpleMemCacheBean def = new SimpleMemCacheBean(CacheBenchmark.class.getName() + "$" + cache);
+        def.setUseSoftReferences(cache.equals("soft"));
+        if (cache.equals("ttl")) {
+            def.setTtl("1M");
+        }
+        return SimpleMemCache.registerCache(def);
+    }
+
+    /**
+     * Read the next key, or write it if this is one of the given percentage of
+     * writes.
+     */
+    private Integer access(Cursor cursor, int writePercent) {
+        int i = cursor.next++;
+        Integer key = keys[i & MASK];
+        if ((i & 0x7fffffff) % 100 < writePercent) {
+            target.put(key, key);
+            return key;
+        }
+        return target.get(key);
+    }
+
+    @Benchmark
+    public Integer readHeavy(Cursor cursor) {
+        return access(cursor, 10);
+    }
+
+    @Benchmark
+    public Integer writeHeavy(Cursor cursor) {
+        return access(cursor, 90);
+    }
+
+    @Benchmark
+    public Integer mixed(Cursor cursor) {
+        return access(cursor, 50);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int max = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1;; threads = Math.min(threads * 2, max)) {
+            Options options = new OptionsBuilder()
+                    .include(CacheBenchmark.class.getSimpleName() + "|" + ClassCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+            if (threads == max) {
+                break;
+            }
+        }
+    }
+}
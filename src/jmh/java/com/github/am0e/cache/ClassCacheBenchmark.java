@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.am0e.jbeans.ClassCache;
+
+/**
+ * Throughput of class lookups through {@link ClassCache}, which are all hits
+ * once warmed. Run by {@link CacheBenchmark#main}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassCacheBenchmark {
+
+    private static final String[] CLASS_NAMES = { "java.lang.String", "java.lang.Integer", "java.lang.Long",
+            "java.util.ArrayList", "java.util.HashMap", "java.util.LinkedList", "java.util.TreeMap",
+            "java.util.concurrent.ConcurrentHashMap", "java.math.BigDecimal", "java.math.BigInteger",
+            "java.time.Instant", "java.time.LocalDate", "java.util.UUID", "java.net.URI",
+            "com.github.am0e.cache.impl.SimpleMemCache", "com.github.am0e.jbeans.ClassCache" };
+
+    private static final int COUNT = 1 << 16;
+    private static final int MASK = COUNT - 1;
+
+    @Param({ "zipf", "uniform" })
+    String distribution;
+
+    ClassLoader loader;
+    String[] names;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup
+    public void setUp() {
+        loader = getClass().getClassLoader();
+        Integer[] keys = KeyDistribution.generate(distribution, CLASS_NAMES.length, COUNT, 42);
+        names = new String[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            names[i] = CLASS_NAMES[keys[i]];
+        }
+    }
+
+    @Benchmark
+    public Class<?> loadClass(Cursor cursor) throws ClassNotFoundException {
+        return ClassCache.loadClass(loader, names[cursor.next++ & MASK]);
+    }
+}
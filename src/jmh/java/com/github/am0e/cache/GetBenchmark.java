@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.am0e.cache.impl.SimpleMemCache;
+import com.github.am0e.cache.impl.SimpleMemCacheBean;
+
+/**
+ * Cost of a cache hit. Compares {@link SimpleMemCache#get(Object)} with the
+ * hit path it replaced, kept in {@link LegacyMemCache}. Run with
+ * <code>-prof gc</code> to confirm the hit allocates nothing.
+ * 
+ * <pre>
+ * mvn -P jmh test-compile exec:exec -Djmh.args="GetBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetBenchmark {
+
+    private static final int SIZE = 1 << 14;
+    private static final int MASK = SIZE - 1;
+
+    @Param({ "false", "true" })
+    boolean softRefs;
+
+    ICache<String> cache;
+    LegacyMemCache<String> legacy;
+    Integer[] keys;
+
+    @State(Scope.Thread)
+    public static class Index {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimpleMemCacheBean def = new SimpleMemCacheBean(GetBenchmark.class.getName() + "$" + softRefs);
+        def.setUseSoftReferences(softRefs);
+        def.setTtl("1H");
+        cache = SimpleMemCache.registerCache(def);
+        legacy = new LegacyMemCache<>(softRefs, TimeUnit.HOURS.toMillis(1));
+        keys = new Integer[SIZE];
+
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = i;
+            cache.put(keys[i], "v" + i);
+            legacy.put(keys[i], "v" + i);
+        }
+    }
+
+    @Benchmark
+    public String hit(Index index) {
+        return cache.get(keys[index.next++ & MASK]);
+    }
+
+    @Benchmark
+    public String legacyHit(Index index) {
+        return legacy.get(keys[index.next++ & MASK]);
+    }
+}
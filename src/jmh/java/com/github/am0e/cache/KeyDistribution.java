@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pregenerated key sequences for the benchmarks, so that generating a key is
+ * not part of the measured operation. Keys are shared Integer instances, one
+ * per distinct key.
+ */
+public final class KeyDistribution {
+
+    /**
+     * Zipf exponent, as used by YCSB. A few keys take most of the accesses.
+     */
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private KeyDistribution() {
+    }
+
+    /**
+     * Generate the sequence of keys.
+     * 
+     * @param distribution
+     *            <code>zipf</code> or <code>uniform</code>.
+     * @param items
+     *            The number of distinct keys.
+     * @param count
+     *            The length of the sequence.
+     */
+    public static Integer[] generate(String distribution, int items, int count, long seed) {
+        Integer[] pool = new Integer[items];
+        for (int i = 0; i < items; i++) {
+            pool[i] = i;
+        }
+
+        Random random = new Random(seed);
+        Integer[] keys = new Integer[count];
+
+        if (distribution.equals("uniform")) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = pool[random.nextInt(items)];
+            }
+        } else if (distribution.equals("zipf")) {
+            double[] cdf = zipfCdf(items);
+            for (int i = 0; i < count; i++) {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble());
+                if (rank < 0) {
+                    rank = -rank - 1;
+                }
+                keys[i] = pool[Math.min(rank, items - 1)];
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        return keys;
+    }
+
+    private static double[] zipfCdf(int items) {
+        double[] cdf = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < items; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The hit path of SimpleMemCache as it was before {@code CacheEntry}, kept as
+ * the baseline for {@link GetBenchmark}: a map of items behind an interface,
+ * each checked against {@link System#currentTimeMillis()} on every read, and
+ * a volatile hit counter.
+ */
+final class LegacyMemCache<T> {
+
+    private interface Item {
+        Object get();
+
+        boolean checkExpired();
+    }
+
+    private static final class ObjItem implements Item {
+        private volatile Object referent;
+        private final long expiryTime;
+
+        ObjItem(Object referent, long expiryTime) {
+            this.referent = referent;
+            this.expiryTime = expiryTime;
+        }
+
+        public Object get() {
+            return referent;
+        }
+
+        public boolean checkExpired() {
+            if (expiryTime > 0 && expiryTime <= System.currentTimeMillis()) {
+                referent = null;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private static final class SoftRefItem extends SoftReference<Object> implements Item {
+        private final long expiryTime;
+
+        SoftRefItem(Object referent, long expiryTime) {
+            super(referent);
+            this.expiryTime = expiryTime;
+        }
+
+        public boolean checkExpired() {
+            if (expiryTime > 0 && expiryTime <= System.currentTimeMillis()) {
+                this.clear();
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private final Map<Object, Item> cache = new ConcurrentHashMap<>(16, 0.75F, 8);
+    private final boolean softRefs;
+    private final long ttl;
+    private volatile int countHits;
+    private volatile int countMisses;
+
+    LegacyMemCache(boolean softRefs, long ttl) {
+        this.softRefs = softRefs;
+        this.ttl = ttl;
+    }
+
+    void put(Object key, T value) {
+        long expiryTime = (ttl <= 0 ? -1 : (System.currentTimeMillis() + ttl));
+        if (softRefs) {
+            cache.put(key, new SoftRefItem(value, expiryTime));
+        } else {
+            cache.put(key, new ObjItem(value, expiryTime));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(Object key) {
+        Item item = cache.get(key);
+        if (item == null) {
+            return null;
+        }
+
+        T it = (T) item.get();
+        if (it == null || item.checkExpired()) {
+            cache.remove(key);
+            countMisses++;
+            return null;
+        }
+
+        countHits++;
+        return it;
+    }
+}
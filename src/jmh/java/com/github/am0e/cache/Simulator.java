@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Paths;
+
+import com.github.am0e.cache.impl.CacheTrace;
+import com.github.am0e.cache.impl.RecordingCache;
+import com.github.am0e.cache.impl.SimpleMemCache;
+import com.github.am0e.cache.impl.SimpleMemCacheBean;
+
+/**
+ * Replays a key access trace against cache configurations and reports the hit
+ * rate, throughput and retained heap of each. A miss puts the key, as a read
+ * through cache would. Traces are recorded with {@link RecordingCache}, see
+ * {@link CacheTrace} for the formats.
+ * 
+ * Each configuration argument is <code>unbounded</code>, <code>soft</code>
+ * for soft referenced values, or a maximum number of entries for the size
+ * bounded cache.
+ * 
+ * <pre>
+ * mvn -P jmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.github.am0e.cache.Simulator -Dexec.args="trace.bin unbounded 1000 10000"
+ * </pre>
+ */
+public final class Simulator {
+
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private Simulator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Simulator <trace> <unbounded|soft|maxEntries>...");
+            System.exit(1);
+        }
+
+        long[] trace = CacheTrace.read(Paths.get(args[0]));
+        System.out.printf("%s: %,d accesses%n", args[0], trace.length);
+        System.out.printf("%-12s %10s %14s %12s %12s%n", "config", "hit rate", "ops/s", "evictions", "heap KB");
+
+        for (int i = 1; i < args.length; i++) {
+            SimpleMemCacheBean def = config(args[i], i);
+            replay(args[i], def, trace);
+        }
+    }
+
+    private static SimpleMemCacheBean config(String spec, int index) {
+        SimpleMemCacheBean def = new SimpleMemCacheBean(Simulator.class.getName() + "$" + index);
+        if (spec.equals("soft")) {
+            def.setUseSoftReferences(true);
+        } else if (spec.equals("unbounded")) {
+            def.setUseSoftReferences(false);
+        } else {
+            def.setUseSoftReferences(false);
+            def.setMaxEntries(Long.parseLong(spec));
+        }
+        return def;
+    }
+
+    private static void replay(String spec, SimpleMemCacheBean def, long[] trace) {
+        long heapBefore = usedHeap();
+        ICache<Long> cache = SimpleMemCache.registerCache(def);
+
+        long start = System.nanoTime();
+        for (long id : trace) {
+            Long key = id;
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long heap = Math.max(0, usedHeap() - heapBefore);
+        CacheStats stats = cache.stats();
+        cache.clearCache();
+
+        System.out.printf("%-12s %9.2f%% %,14d %,12d %,12d%n", spec, stats.getHitRate() * 100,
+                trace.length * 1_000_000_000L / Math.max(1, elapsed), stats.getCountEvictions(), heap / 1024);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
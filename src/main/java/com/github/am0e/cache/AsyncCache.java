@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Non blocking companion to {@link ICache}. A miss starts the load and returns
+ * its future without waiting for it, so callers on an event loop are never
+ * blocked.
+ */
+public interface AsyncCache<T> {
+
+    /**
+     * Get the value for the key. A hit returns a completed future. On a miss
+     * the loader is called to start the load, and concurrent calls for the key
+     * share the future of the load in progress. The value is cached when the
+     * load completes; a failed load or a null value is not cached.
+     */
+    public CompletableFuture<T> getAsync(Object key,
+            Function<Object, ? extends CompletableFuture<? extends T>> loader);
+
+    /**
+     * The blocking view of the cache.
+     */
+    public ICache<T> synchronous();
+}
@@ -14,36 +14,19 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  *******************************************************************************/
-package com.github.am0e.cache.impl;
+package com.github.am0e.cache;
 
-public class ObjCacheItem implements CacheItem {
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
-    private volatile Object referent;
-    private long expiryTime;
+/**
+ * Converts cached values to and from bytes for caches that store values
+ * serialized, such as off heap or persistent caches.
+ */
+public interface CacheCodec<T> {
 
-    public ObjCacheItem(Object referent, long expiryTime) {
-        this.referent = referent;
-        this.expiryTime = expiryTime;
-    }
+    public void encode(T value, OutputStream out) throws IOException;
 
-    public boolean expired() {
-        return false;
-    }
-
-    public long expiryTime() {
-        return expiryTime;
-    }
-
-    public Object get() {
-        return referent;
-    }
-
-    public boolean checkExpired() {
-        if (expiryTime > 0 && expiryTime <= System.currentTimeMillis()) {
-            referent = null;
-            return true;
-        } else {
-            return false;
-        }
-    }
+    public T decode(InputStream in) throws IOException;
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of a cache's statistics. The hit rate over an interval is
+ * found by subtracting the snapshot taken at its start with
+ * {@link #minus(CacheStats)}.
+ */
+public final class CacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of buckets in the load time histogram. Bucket i counts loads
+     * taking less than 2^i microseconds, the last bucket the rest.
+     */
+    public static final int LOAD_TIME_BUCKETS = 25;
+
+    public static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, new long[RemovalCause.values().length],
+            new long[LOAD_TIME_BUCKETS]);
+
+    private final long countAdded;
+    private final long countHits;
+    private final long countMisses;
+    private final long countLoads;
+    private final long countLoadFailures;
+    private final long totalLoadTime;
+    private final long[] countEvictions;
+    private final long[] loadTimes;
+
+    public CacheStats(long countAdded, long countHits, long countMisses, long countLoads, long countLoadFailures,
+            long totalLoadTime, long[] countEvictions, long[] loadTimes) {
+        this.countAdded = countAdded;
+        this.countHits = countHits;
+        this.countMisses = countMisses;
+        this.countLoads = countLoads;
+        this.countLoadFailures = countLoadFailures;
+        this.totalLoadTime = totalLoadTime;
+        this.countEvictions = countEvictions;
+        this.loadTimes = loadTimes;
+    }
+
+    public long getCountAdded() {
+        return countAdded;
+    }
+
+    public long getCountHits() {
+        return countHits;
+    }
+
+    public long getCountMisses() {
+        return countMisses;
+    }
+
+    public long getCountRequests() {
+        return countHits + countMisses;
+    }
+
+    /**
+     * Ratio of hits to requests, 1.0 if there were no requests.
+     */
+    public double getHitRate() {
+        long requests = getCountRequests();
+        return requests == 0 ? 1.0 : (double) countHits / requests;
+    }
+
+    /**
+     * Number of successful loads. A load returning null is a success.
+     */
+    public long getCountLoads() {
+        return countLoads;
+    }
+
+    public long getCountLoadFailures() {
+        return countLoadFailures;
+    }
+
+    /**
+     * Total time spent loading in nanoseconds.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Average time of a load, successful or not, in nanoseconds.
+     */
+    public double getAverageLoadTime() {
+        long loads = countLoads + countLoadFailures;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    public long getCountEvictions() {
+        long sum = 0;
+        for (long n : countEvictions) {
+            sum += n;
+        }
+        return sum;
+    }
+
+    public long getCountEvictions(RemovalCause cause) {
+        return countEvictions[cause.ordinal()];
+    }
+
+    /**
+     * Load time histogram. See {@link #LOAD_TIME_BUCKETS}.
+     */
+    public long[] getLoadTimes() {
+        return loadTimes.clone();
+    }
+
+    /**
+     * Statistics for the interval since the other snapshot was taken.
+     */
+    public CacheStats minus(CacheStats other) {
+        long[] evictions = new long[countEvictions.length];
+        for (int i = 0; i < evictions.length; i++) {
+            evictions[i] = Math.max(0, countEvictions[i] - other.countEvictions[i]);
+        }
+        long[] times = new long[loadTimes.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = Math.max(0, loadTimes[i] - other.loadTimes[i]);
+        }
+        return new CacheStats(Math.max(0, countAdded - other.countAdded), Math.max(0, countHits - other.countHits),
+                Math.max(0, countMisses - other.countMisses), Math.max(0, countLoads - other.countLoads),
+                Math.max(0, countLoadFailures - other.countLoadFailures),
+                Math.max(0, totalLoadTime - other.totalLoadTime), evictions, times);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats[added=" + countAdded + ", hits=" + countHits + ", misses=" + countMisses + ", loads="
+                + countLoads + ", loadFailures=" + countLoadFailures + ", totalLoadTime=" + totalLoadTime
+                + ", evictions=" + getCountEvictions() + "]";
+    }
+}
@@ -14,32 +14,20 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  *******************************************************************************/
-package com.github.am0e.cache.impl;
-
-import java.lang.ref.WeakReference;
-
-public class WeakRefCacheItem extends WeakReference<Object> implements CacheItem {
+package com.github.am0e.cache;
 
+/**
+ * Calculates the time to live of a cache entry when it is written, so entries
+ * can expire at different times.
+ */
+public interface Expiry<T> {
     /**
-     * Expiration time. -1 means never expires.
+     * Return the time to live of the entry in milliseconds. -1 means never
+     * expires.
+     * 
+     * @param ttl
+     *            The time to live the entry was put with, or the cache's
+     *            default.
      */
-    private long expiryTime;
-
-    public WeakRefCacheItem(Object referent, long expiryTime) {
-        super(referent);
-        this.expiryTime = expiryTime;
-    }
-
-    public long expiryTime() {
-        return expiryTime;
-    }
-
-    public boolean checkExpired() {
-        if (expiryTime > 0 && expiryTime <= System.currentTimeMillis()) {
-            this.clear();
-            return true;
-        } else {
-            return false;
-        }
-    }
+    public long expireAfterWrite(Object key, T value, long ttl);
 }
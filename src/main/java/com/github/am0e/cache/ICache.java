@@ -16,6 +16,13 @@
  *******************************************************************************/
 package com.github.am0e.cache;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.github.am0e.lib.AntLib;
+
 public interface ICache<T> {
     public void put(Object key, T value);
 
@@ -25,5 +32,120 @@ public interface ICache<T> {
 
     public void remove(Object key);
 
+    /**
+     * Put the value tagged with the tags, so it can be removed with
+     * {@link #invalidateTag(String)}. Tags are hierarchical, their levels
+     * separated by <code>/</code>.
+     * 
+     * The default implementation ignores the tags, for caches that do not
+     * keep them. Their {@link #invalidateTag(String)} clears the cache
+     * instead.
+     */
+    public default void put(Object key, T value, long ttl, String... tags) {
+        put(key, value, ttl);
+    }
+
+    /**
+     * Remove the entries tagged with the tag or with any tag below it, so
+     * invalidating <code>user:42</code> also removes entries tagged
+     * <code>user:42/orders</code>.
+     * 
+     * The default implementation clears the cache, which removes at least the
+     * tagged entries in caches that do not keep tags.
+     */
+    public default void invalidateTag(String tag) {
+        clearCache();
+    }
+
     public void clearCache();
+
+    /**
+     * Snapshot of the cache statistics. Empty if the cache does not record
+     * them.
+     */
+    public default CacheStats stats() {
+        return CacheStats.EMPTY;
+    }
+
+    /**
+     * Get the values for the keys. Keys without a value are absent from the
+     * returned map.
+     */
+    public default Map<Object, T> getAll(Collection<?> keys) {
+        Map<Object, T> result = AntLib.newHashMap(keys.size());
+        for (Object key : keys) {
+            T value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Put all the entries with the given time to live. -1 means never
+     * expires.
+     */
+    public default void putAll(Map<?, ? extends T> entries, long ttl) {
+        for (Map.Entry<?, ? extends T> e : entries.entrySet()) {
+            put(e.getKey(), e.getValue(), ttl);
+        }
+    }
+
+    /**
+     * Remove the entries for all the keys.
+     */
+    public default void removeAll(Collection<?> keys) {
+        for (Object key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Get the value for the key, calling the loader to compute and cache it on
+     * a miss. A null value from the loader is not cached. Implementations may
+     * ensure concurrent misses on the same key call the loader only once; the
+     * default implementation does not.
+     */
+    public default T get(Object key, Function<Object, ? extends T> loader) {
+        T value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Get the values for the keys, calling the bulk loader once with the keys
+     * that missed and caching the values it returns. Keys without a value are
+     * absent from the returned map.
+     */
+    public default Map<Object, T> getAll(Collection<?> keys, Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        Map<Object, T> result = getAll(keys);
+        Set<Object> missing = AntLib.newHashSet();
+
+        for (Object key : keys) {
+            if (result.containsKey(key) == false) {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty() == false) {
+            Map<Object, T> loaded = bulkLoader.apply(missing);
+            if (loaded != null) {
+                for (Object key : missing) {
+                    T value = loaded.get(key);
+                    if (value != null) {
+                        put(key, value);
+                        result.put(key, value);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
 }
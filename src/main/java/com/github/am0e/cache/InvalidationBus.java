@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+/**
+ * Broadcasts cache invalidations between cache layers, in the same JVM or in
+ * other JVMs, so that near caches do not serve values after they are changed.
+ */
+public interface InvalidationBus {
+
+    public interface Listener {
+        /**
+         * The key was changed or removed in the named cache by the source. A
+         * null key means the cache was cleared.
+         */
+        public void invalidate(String source, String cacheName, Object key);
+
+        /**
+         * The entries tagged with the tag or a tag below it were removed from
+         * the named cache by the source. The default implementation treats it
+         * as a clear of the cache.
+         */
+        public default void invalidateTag(String source, String cacheName, String tag) {
+            invalidate(source, cacheName, null);
+        }
+    }
+
+    public void subscribe(Listener listener);
+
+    public void unsubscribe(Listener listener);
+
+    /**
+     * Publish the invalidation of a key, or of the whole cache if the key is
+     * null.
+     */
+    public void publish(String source, String cacheName, Object key);
+
+    /**
+     * Publish the invalidation of a tag. The default implementation publishes
+     * the invalidation of the whole cache.
+     */
+    public default void publishTag(String source, String cacheName, String tag) {
+        publish(source, cacheName, null);
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache;
+
+import com.github.am0e.cache.impl.ExpiringLongObjectMap;
+import com.github.am0e.cache.impl.StatsCounter;
+
+/**
+ * Cache keyed by primitive longs. Entries live in open addressing tables with
+ * the keys, values and expiry times held in parallel arrays, so a lookup
+ * neither boxes the key nor allocates an entry. The tables are split into
+ * segments, each guarded by its own monitor.
+ * 
+ * Values are held strongly and there is no size bound. The {@link ICache}
+ * methods accept any {@link Number} key.
+ */
+public class LongKeyCache<T> implements ICache<T> {
+
+    private final ExpiringLongObjectMap<T>[] segments;
+    private final int segmentMask;
+    private final long ttl;
+    private final StatsCounter stats = new StatsCounter();
+
+    /**
+     * @param ttl
+     *            The default time to live in milliseconds. -1 means never
+     *            expires.
+     */
+    public LongKeyCache(long ttl) {
+        this(ttl, 16);
+    }
+
+    public LongKeyCache(long ttl, int concurrencyLevel) {
+        int count = Integer.highestOneBit(Math.max(1, concurrencyLevel - 1) << 1);
+        this.segments = newSegments(count);
+        this.segmentMask = count - 1;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Java cannot create an array of a generic type, so create the raw array.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> ExpiringLongObjectMap<T>[] newSegments(int count) {
+        ExpiringLongObjectMap<T>[] segments = new ExpiringLongObjectMap[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new ExpiringLongObjectMap<>();
+        }
+        return segments;
+    }
+
+    private ExpiringLongObjectMap<T> segmentFor(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return segments[h & segmentMask];
+    }
+
+    public T get(long key) {
+        ExpiringLongObjectMap<T> segment = segmentFor(key);
+        T value;
+        int expired;
+        synchronized (segment) {
+            value = segment.get(key, System.currentTimeMillis());
+            expired = segment.takeCountExpired();
+        }
+        if (expired > 0) {
+            stats.recordEvictions(RemovalCause.EXPIRED, expired);
+        }
+        if (value == null) {
+            stats.recordMisses(1);
+        } else {
+            stats.recordHits(1);
+        }
+        return value;
+    }
+
+    public void put(long key, T value) {
+        put(key, value, ttl);
+    }
+
+    public void put(long key, T value, long ttl) {
+        long expiryTime = (ttl <= 0 ? 0 : (System.currentTimeMillis() + ttl));
+        ExpiringLongObjectMap<T> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value, expiryTime);
+        }
+        stats.recordAdded(1);
+    }
+
+    public void remove(long key) {
+        ExpiringLongObjectMap<T> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    @Override
+    public T get(Object key) {
+        return get(((Number) key).longValue());
+    }
+
+    @Override
+    public void put(Object key, T value) {
+        put(((Number) key).longValue(), value, ttl);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl) {
+        put(((Number) key).longValue(), value, ttl);
+    }
+
+    @Override
+    public void remove(Object key) {
+        remove(((Number) key).longValue());
+    }
+
+    @Override
+    public void clearCache() {
+        for (ExpiringLongObjectMap<T> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        stats.reset();
+    }
+
+    /**
+     * Remove the expired entries from all segments.
+     */
+    public void cleanUp() {
+        long now = System.currentTimeMillis();
+        for (ExpiringLongObjectMap<T> segment : segments) {
+            int count;
+            synchronized (segment) {
+                count = segment.removeExpired(now);
+            }
+            stats.recordEvictions(RemovalCause.EXPIRED, count);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (ExpiringLongObjectMap<T> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+}
@@ -14,32 +14,24 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  *******************************************************************************/
-package com.github.am0e.cache.impl;
-
-import java.lang.ref.SoftReference;
-
-public class SoftRefCacheItem extends SoftReference<Object> implements CacheItem {
+package com.github.am0e.cache;
 
+/**
+ * Why an entry was evicted from a cache.
+ */
+public enum RemovalCause {
     /**
-     * Expiration time. -1 means never expires.
+     * Evicted to keep the cache within its size or weight bound.
      */
-    private long expiryTime;
+    SIZE,
 
-    public SoftRefCacheItem(Object referent, long expiryTime) {
-        super(referent);
-        this.expiryTime = expiryTime;
-    }
-
-    public long expiryTime() {
-        return expiryTime;
-    }
+    /**
+     * The entry's time to live ran out.
+     */
+    EXPIRED,
 
-    public boolean checkExpired() {
-        if (expiryTime > 0 && expiryTime <= System.currentTimeMillis()) {
-            this.clear();
-            return true;
-        } else {
-            return false;
-        }
-    }
+    /**
+     * The value was reclaimed by the GC.
+     */
+    COLLECTED
 }
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.am0e.cache.Weigher;
+import com.github.am0e.utils.Validate;
+
+/**
+ * Size bounded in memory cache using the W-TinyLFU policy.
+ * 
+ * New entries are placed in a small LRU admission window. Entries leaving the
+ * window compete with the victim of the main space, which is a segmented LRU
+ * split into probation and protected regions. A {@link FrequencySketch} of
+ * recent access frequency decides which of the two is retained, so a scan of
+ * one-off keys cannot flush out the hot entries.
+ * 
+ * The bound is on the total weight of the entries when a maximum weight is
+ * configured, using the {@link Weigher} to weigh each entry, and on the number
+ * of entries when a maximum entry count is configured. Both may be given. A
+ * maximum memory is a maximum weight in bytes, each entry weighed by a
+ * {@link SizeEstimator}.
+ * 
+ * The policy is updated under a lock. Reads only record the access if the lock
+ * is free, so a contended read skips the bookkeeping rather than wait for it.
+ * Evicted entries are removed from the cache after the lock is released.
+ */
+public class BoundedMemCache<T> extends SimpleMemCache<T> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * Percentage of the capacity given to the admission window.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Percentage of the main space given to the protected region.
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * Policy data for an entry in the cache.
+     */
+    private static final class Node {
+        final Object key;
+        CacheItem item;
+        int weight;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(Object key, CacheItem item, int weight) {
+            this.key = key;
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of nodes in access order. The head is the
+     * least recently used.
+     */
+    private static final class AccessOrderDeque {
+        Node head;
+        Node tail;
+        long weight;
+
+        void add(Node n) {
+            n.prev = tail;
+            n.next = null;
+            if (tail == null) {
+                head = n;
+            } else {
+                tail.next = n;
+            }
+            tail = n;
+            weight += n.weight;
+        }
+
+        void remove(Node n) {
+            if (n.prev == null) {
+                head = n.next;
+            } else {
+                n.prev.next = n.next;
+            }
+            if (n.next == null) {
+                tail = n.prev;
+            } else {
+                n.next.prev = n.prev;
+            }
+            n.prev = null;
+            n.next = null;
+            weight -= n.weight;
+        }
+
+        void moveToBack(Node n) {
+            if (n != tail) {
+                remove(n);
+                add(n);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+
+    private final long maxEntries;
+    private final long maxWeight;
+    private final Weigher<? super T> weigher;
+    private final long capacity;
+    private final long windowMax;
+    private final long protectedMax;
+
+    private final ReentrantLock policyLock;
+    private final HashMap<Object, Node> nodes;
+    private final AccessOrderDeque window;
+    private final AccessOrderDeque probation;
+    private final AccessOrderDeque protect;
+    private final FrequencySketch sketch;
+    private volatile long weightedSize;
+
+    @SuppressWarnings("unchecked")
+    BoundedMemCache(SimpleMemCacheBean def) {
+        super(def);
+        long maxMemory = def.getMaxMemoryVal();
+        Validate.paramIsTrue(def.getMaxEntries() > 0 || def.getMaxWeight() > 0 || maxMemory > 0,
+                "Cache {} requires maxEntries, maxWeight or maxMemory", def.getCacheName());
+        Validate.paramIsTrue(def.getMaxWeight() <= 0 || def.getWeigher() != null,
+                "Cache {} requires a weigher for maxWeight", def.getCacheName());
+
+        this.maxEntries = def.getMaxEntries();
+        if (maxMemory > 0) {
+            this.maxWeight = maxMemory;
+            this.weigher = new SizeEstimator();
+        } else {
+            this.maxWeight = def.getMaxWeight();
+            this.weigher = maxWeight > 0 ? (Weigher<? super T>) def.getWeigher() : null;
+        }
+
+        // The regions are sized in weight if weighted, otherwise in entries.
+        //
+        this.capacity = maxWeight > 0 ? maxWeight : maxEntries;
+        this.windowMax = Math.max(1, capacity * WINDOW_PERCENT / 100);
+        this.protectedMax = (capacity - windowMax) * PROTECTED_PERCENT / 100;
+
+        this.policyLock = new ReentrantLock();
+        this.nodes = new HashMap<>();
+        this.window = new AccessOrderDeque();
+        this.probation = new AccessOrderDeque();
+        this.protect = new AccessOrderDeque();
+        this.sketch = new FrequencySketch();
+
+        if (maxEntries > 0) {
+            sketch.ensureCapacity(maxEntries);
+        }
+    }
+
+    public final long getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public final long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public final long getWeightedSize() {
+        return weightedSize;
+    }
+
+    @Override
+    void onWrite(Object key, T value, CacheItem item) {
+        int weight = weigh(key, value);
+        List<Node> evicted;
+
+        policyLock.lock();
+        try {
+            // A concurrent put or remove of the key may have overtaken this
+            // one. Its own notification tracks the entry, so tracking this
+            // item would leave the node pointing at a stale item.
+            //
+            if (isCurrent(key, item) == false) {
+                return;
+            }
+
+            Node node = nodes.get(key);
+            if (node == null) {
+                node = new Node(key, item, weight);
+                node.queue = WINDOW;
+                nodes.put(key, node);
+                window.add(node);
+                weightedSize += weight;
+
+                if (maxEntries <= 0) {
+                    sketch.ensureCapacity(nodes.size());
+                }
+            } else {
+                // Replaced value. Reweigh it in place and treat it as an access.
+                //
+                AccessOrderDeque deque = dequeOf(node);
+                deque.remove(node);
+                weightedSize += weight - node.weight;
+                node.item = item;
+                node.weight = weight;
+                deque.add(node);
+                onAccess(node);
+            }
+
+            sketch.increment(key);
+            evicted = evict();
+
+        } finally {
+            policyLock.unlock();
+        }
+
+        if (evicted != null) {
+            for (Node node : evicted) {
+                evictItem(node.key, node.item);
+            }
+        }
+    }
+
+    @Override
+    void onRead(Object key, CacheItem item) {
+        if (policyLock.tryLock()) {
+            try {
+                Node node = nodes.get(key);
+                if (node != null) {
+                    sketch.increment(key);
+                    onAccess(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    void onRemoved(Object key, CacheItem item) {
+        policyLock.lock();
+        try {
+            Node node = nodes.get(key);
+            if (node != null && node.item == item) {
+                unlink(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    void onCleared() {
+        policyLock.lock();
+        try {
+            nodes.clear();
+            window.clear();
+            probation.clear();
+            protect.clear();
+            weightedSize = 0;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private int weigh(Object key, T value) {
+        if (weigher == null) {
+            return 1;
+        }
+        int weight = weigher.weigh(key, value);
+        Validate.paramIsTrue(weight >= 0, "Negative weight for {}", key);
+        return weight;
+    }
+
+    private AccessOrderDeque dequeOf(Node node) {
+        if (node.queue == WINDOW) {
+            return window;
+        } else if (node.queue == PROBATION) {
+            return probation;
+        } else {
+            return protect;
+        }
+    }
+
+    /**
+     * Promote a probation entry to protected on a hit, otherwise move the entry
+     * to the most recently used position of its region.
+     */
+    private void onAccess(Node node) {
+        if (node.queue == PROBATION) {
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protect.add(node);
+
+            // Demote the least recently used protected entries back to
+            // probation.
+            //
+            while (protect.weight > protectedMax && protect.head != node) {
+                Node demoted = protect.head;
+                protect.remove(demoted);
+                demoted.queue = PROBATION;
+                probation.add(demoted);
+            }
+        } else {
+            dequeOf(node).moveToBack(node);
+        }
+    }
+
+    private boolean overCapacity() {
+        return (maxWeight > 0 && weightedSize > maxWeight) || (maxEntries > 0 && nodes.size() > maxEntries);
+    }
+
+    /**
+     * Move the overflow of the window into probation, then evict until the
+     * cache is within its bounds. Entries that came from the window are the
+     * candidates and are only admitted if they are used more often than the
+     * probation victim they would displace. Returns the evicted nodes or null.
+     */
+    private List<Node> evict() {
+        List<Node> evicted = null;
+        Node candidate = null;
+        while (window.weight > windowMax && window.head != null) {
+            Node n = window.head;
+            window.remove(n);
+            n.queue = PROBATION;
+            probation.add(n);
+            if (candidate == null) {
+                candidate = n;
+            }
+        }
+
+        while (overCapacity()) {
+            Node victim = probation.head;
+            if (victim == null) {
+                victim = protect.head;
+            }
+            if (victim == null) {
+                victim = window.head;
+            }
+            if (victim == null) {
+                break;
+            }
+
+            if (candidate != null && victim != candidate && victim.queue == PROBATION) {
+                if (admit(candidate.key, victim.key) == false) {
+                    Node next = candidate.next;
+                    victim = candidate;
+                    candidate = next;
+                }
+            } else if (victim == candidate) {
+                candidate = candidate.next;
+            }
+
+            unlink(victim);
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(victim);
+        }
+        return evicted;
+    }
+
+    /**
+     * Decide if the candidate should replace the victim. A small random chance
+     * of admitting a warm candidate stops an attacker keeping the victim
+     * resident by flooding the sketch with its hash.
+     */
+    private boolean admit(Object candidateKey, Object victimKey) {
+        int candidateFreq = sketch.frequency(candidateKey);
+        int victimFreq = sketch.frequency(victimKey);
+        if (candidateFreq > victimFreq) {
+            return true;
+        } else if (candidateFreq <= 5) {
+            return false;
+        } else {
+            return ThreadLocalRandom.current().nextInt(128) == 0;
+        }
+    }
+
+    private void unlink(Node node) {
+        dequeOf(node).remove(node);
+        nodes.remove(node.key);
+        weightedSize -= node.weight;
+    }
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The entry stored in {@link SimpleMemCache}. A single final class so a hit
+ * reads two fields with no interface dispatch. The value field holds either
+ * the value itself or a soft or weak reference to it.
+ * 
+ * An entry with an idle time also expires when not read for that long. Its
+ * access time is written at most once per clock tick.
+ */
+final class CacheEntry implements CacheItem {
+
+    private static final AtomicLongFieldUpdater<CacheEntry> ACCESS_TIME = AtomicLongFieldUpdater
+            .newUpdater(CacheEntry.class, "accessTime");
+
+    /**
+     * Reference to a value. Enqueued with the entry's key when the GC clears
+     * it.
+     */
+    interface Ref {
+        Object key();
+
+        CacheEntry entry();
+
+        Object get();
+    }
+
+    static final class SoftRef extends SoftReference<Object> implements Ref {
+        private final Object key;
+        private final CacheEntry entry;
+
+        SoftRef(Object key, Object referent, CacheEntry entry, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.key = key;
+            this.entry = entry;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public CacheEntry entry() {
+            return entry;
+        }
+    }
+
+    static final class WeakRef extends WeakReference<Object> implements Ref {
+        private final Object key;
+        private final CacheEntry entry;
+
+        WeakRef(Object key, Object referent, CacheEntry entry, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.key = key;
+            this.entry = entry;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public CacheEntry entry() {
+            return entry;
+        }
+    }
+
+    /**
+     * The value or a {@link Ref} to it.
+     */
+    final Object value;
+
+    /**
+     * Expiration time. -1 means never expires.
+     */
+    final long expiryTime;
+
+    /**
+     * Time the entry was cached.
+     */
+    final long writeTime;
+
+    /**
+     * Time after the last access at which the entry expires. 0 means never.
+     */
+    final long idleTime;
+
+    /**
+     * Tags the entry was put with, or null.
+     */
+    final String[] tags;
+
+    /**
+     * Time of the last read or write. Only maintained with an idle time.
+     * Volatile so the cleaner thread sees reads made on other threads. Written
+     * with a lazy set, which needs no store fence.
+     */
+    volatile long accessTime;
+
+    /**
+     * Create an entry holding the value strongly.
+     */
+    CacheEntry(Object value, long writeTime, long expiryTime, long idleTime, String[] tags) {
+        this.value = value;
+        this.writeTime = writeTime;
+        this.expiryTime = expiryTime;
+        this.idleTime = idleTime;
+        this.tags = tags;
+        ACCESS_TIME.lazySet(this, writeTime);
+    }
+
+    /**
+     * Create an entry holding the value by a soft or weak reference registered
+     * with the queue.
+     */
+    CacheEntry(Object key, Object value, long writeTime, long expiryTime, long idleTime, String[] tags,
+            boolean weak, ReferenceQueue<Object> queue) {
+        this.value = weak ? new WeakRef(key, value, this, queue) : new SoftRef(key, value, this, queue);
+        this.writeTime = writeTime;
+        this.expiryTime = expiryTime;
+        this.idleTime = idleTime;
+        this.tags = tags;
+        ACCESS_TIME.lazySet(this, writeTime);
+    }
+
+    /**
+     * True if the entry has expired at the given time.
+     */
+    boolean isExpired(long now) {
+        return (expiryTime > 0 && expiryTime <= now) || (idleTime > 0 && accessTime + idleTime <= now);
+    }
+
+    boolean hasTag(String tag) {
+        if (tags != null) {
+            for (String it : tags) {
+                if (it.equals(tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record a read at the given time if the entry has an idle time.
+     */
+    void touch(long now) {
+        if (idleTime > 0 && accessTime != now) {
+            ACCESS_TIME.lazySet(this, now);
+        }
+    }
+
+    /**
+     * Tests for the final reference classes rather than {@link Ref}, as an
+     * instanceof check against an interface scans the interfaces of the value's
+     * class when it is not a reference.
+     */
+    public Object get() {
+        Object it = value;
+        if (it instanceof SoftRef) {
+            return ((SoftRef) it).get();
+        } else if (it instanceof WeakRef) {
+            return ((WeakRef) it).get();
+        } else {
+            return it;
+        }
+    }
+
+    public boolean checkExpired() {
+        return isExpired(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * The earlier of the expiry time and the end of the idle time.
+     */
+    public long expiryTime() {
+        if (idleTime <= 0) {
+            return expiryTime;
+        }
+        long idleExpiry = accessTime + idleTime;
+        return (expiryTime > 0 && expiryTime < idleExpiry) ? expiryTime : idleExpiry;
+    }
+
+    public long writeTime() {
+        return writeTime;
+    }
+}
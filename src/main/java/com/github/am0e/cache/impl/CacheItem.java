@@ -39,4 +39,11 @@ public abstract interface CacheItem {
      * @return
      */
     public long expiryTime();
+
+    /**
+     * Time when the object was cached. 0 if not known.
+     * 
+     * @return
+     */
+    public long writeTime();
 }
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.am0e.cache.CacheCodec;
+
+/**
+ * Snapshot of the live entries of a cache in a memory mapped file, used to warm
+ * the cache after a restart.
+ * 
+ * The file holds a header followed by the entries, each the encoded key, the
+ * absolute expiry time and the encoded value. Keys are encoded with java
+ * serialization and values with the cache's codec. Entries whose key or value
+ * cannot be encoded are skipped, as are keys that cannot be decoded when the
+ * snapshot is opened.
+ * 
+ * Opening a snapshot maps the file and decodes only the keys. A value is
+ * decoded when its key is first missed in the cache, and cached with the
+ * remaining time to live it had when the snapshot was written. The idle time
+ * is not kept: a restored entry's idle time starts when it is restored.
+ * 
+ * Writing a snapshot while the previous one is still being restored also
+ * writes the entries not yet restored, copying their values as they are.
+ * 
+ * A snapshot is mapped as a single buffer, so it is limited to 2GB.
+ */
+public final class CacheSnapshot<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    private static final int MAGIC = 0x416d5348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int WINDOW_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Location of an entry's value in the mapping.
+     */
+    private static final class Entry {
+        final int offset;
+        final int length;
+        final long expiryTime;
+
+        Entry(int offset, int length, long expiryTime) {
+            this.offset = offset;
+            this.length = length;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    /**
+     * Appends entries to the snapshot file through mapped windows.
+     */
+    private static final class Writer {
+        final FileChannel ch;
+        final Path file;
+        long position = HEADER_SIZE;
+        MappedByteBuffer window;
+        int count;
+
+        Writer(FileChannel ch, Path file) throws IOException {
+            this.ch = ch;
+            this.file = file;
+            this.window = ch.map(MapMode.READ_WRITE, position, WINDOW_SIZE);
+        }
+
+        void add(byte[] key, long expiryTime, ByteBuffer value) throws IOException {
+            // Map the next window if the entry does not fit.
+            //
+            int size = 4 + key.length + 8 + 4 + value.remaining();
+            if (position + window.position() + size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large " + file);
+            }
+            if (window.remaining() < size) {
+                position += window.position();
+                window = ch.map(MapMode.READ_WRITE, position, Math.max(WINDOW_SIZE, size));
+            }
+
+            window.putInt(key.length);
+            window.put(key);
+            window.putLong(expiryTime);
+            window.putInt(value.remaining());
+            window.put(value);
+            count++;
+        }
+
+        void finish() throws IOException {
+            position += window.position();
+            window.force();
+            ch.truncate(position);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).flip();
+            ch.write(header, 0);
+            ch.force(true);
+        }
+    }
+
+    private final CacheCodec<T> codec;
+    private final ConcurrentHashMap<Object, Entry> entries;
+    private volatile ByteBuffer mapping;
+    private int countSkipped;
+
+    private CacheSnapshot(ByteBuffer mapping, CacheCodec<T> codec) {
+        this.mapping = mapping;
+        this.codec = codec;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Write the live entries of the cache, and the entries of the previous
+     * snapshot not yet restored or discarded, to the file. The file is written
+     * under a temporary name and then moved into place.
+     * 
+     * @param previous
+     *            the snapshot being restored into the cache, or null.
+     * @return the number of entries written.
+     * @throws IOException
+     *             if the entries do not fit in a 2GB snapshot.
+     */
+    static <T> int write(Map<Object, CacheEntry> cache, CacheSnapshot<T> previous, Path file, CacheCodec<T> codec)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count;
+        try {
+            count = writeEntries(cache, previous, tmp, codec);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static <T> int writeEntries(Map<Object, CacheEntry> cache, CacheSnapshot<T> previous, Path tmp,
+            CacheCodec<T> codec) throws IOException {
+        CacheCodec<Object> keyCodec = new SerializingCodec<>();
+        ByteArrayOutputStream keyOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream valueOut = new ByteArrayOutputStream();
+        long now = System.currentTimeMillis();
+
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            Writer out = new Writer(ch, tmp);
+
+            // Pending entries first, so that a live value for the same key
+            // written after it wins when opened.
+            //
+            ByteBuffer mapping = previous != null ? previous.mapping : null;
+            if (mapping != null) {
+                for (Map.Entry<Object, Entry> e : previous.entries.entrySet()) {
+                    Entry it = e.getValue();
+                    if (cache.containsKey(e.getKey()) || (it.expiryTime > 0 && it.expiryTime <= now)) {
+                        continue;
+                    }
+
+                    keyOut.reset();
+                    try {
+                        keyCodec.encode(e.getKey(), keyOut);
+                    } catch (IOException ex) {
+                        log.debug("Not written {} {}", e.getKey(), ex.getMessage());
+                        continue;
+                    }
+
+                    ByteBuffer value = mapping.duplicate();
+                    value.position(it.offset);
+                    value.limit(it.offset + it.length);
+                    out.add(keyOut.toByteArray(), it.expiryTime, value);
+                }
+            }
+
+            for (Map.Entry<Object, CacheEntry> e : cache.entrySet()) {
+                CacheEntry item = e.getValue();
+                @SuppressWarnings("unchecked")
+                T value = (T) item.get();
+
+                if (value == null || item.isExpired(now)) {
+                    continue;
+                }
+
+                keyOut.reset();
+                valueOut.reset();
+                try {
+                    keyCodec.encode(e.getKey(), keyOut);
+                    codec.encode(value, valueOut);
+                } catch (IOException ex) {
+                    log.debug("Not written {} {}", e.getKey(), ex.getMessage());
+                    continue;
+                }
+
+                // The expiry time without the idle time, which restarts when
+                // restored.
+                //
+                out.add(keyOut.toByteArray(), item.expiryTime, ByteBuffer.wrap(valueOut.toByteArray()));
+            }
+
+            out.finish();
+            return out.count;
+        }
+    }
+
+    /**
+     * Map the snapshot file and index its keys. Entries that have expired since
+     * the snapshot was written are skipped.
+     */
+    public static <T> CacheSnapshot<T> open(Path file, CacheCodec<T> codec) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large " + file);
+            }
+            mapping = ch.map(MapMode.READ_ONLY, 0, ch.size());
+        }
+
+        if (mapping.remaining() < HEADER_SIZE || mapping.getInt() != MAGIC || mapping.getInt() != VERSION) {
+            throw new IOException("Not a cache snapshot " + file);
+        }
+        int count = mapping.getInt();
+        mapping.position(HEADER_SIZE);
+
+        CacheSnapshot<T> snapshot = new CacheSnapshot<>(mapping, codec);
+        CacheCodec<Object> keyCodec = new SerializingCodec<>();
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            int keyLength = mapping.getInt();
+            ByteBuffer keyBuf = mapping.slice();
+            keyBuf.limit(keyLength);
+            mapping.position(mapping.position() + keyLength);
+            long expiryTime = mapping.getLong();
+            int valueLength = mapping.getInt();
+            int offset = mapping.position();
+            mapping.position(offset + valueLength);
+
+            if (expiryTime > 0 && expiryTime <= now) {
+                continue;
+            }
+
+            Object key;
+            try {
+                key = keyCodec.decode(new ByteBufferInputStream(keyBuf));
+            } catch (IOException | RuntimeException e) {
+                log.debug("Key not restored {} {}", file, e.getMessage());
+                snapshot.countSkipped++;
+                continue;
+            }
+            snapshot.entries.put(key, new Entry(offset, valueLength, expiryTime));
+        }
+
+        if (snapshot.countSkipped > 0) {
+            log.warn("Snapshot {} skipped {} keys that could not be decoded", file, snapshot.countSkipped);
+        }
+        log.debug("Opened snapshot {} entries={}", file, snapshot.entries.size());
+        return snapshot;
+    }
+
+    /**
+     * Number of entries skipped when opened because their key could not be
+     * decoded.
+     */
+    public int getCountSkipped() {
+        return countSkipped;
+    }
+
+    /**
+     * Number of entries not yet restored or discarded.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Forget the entry for the key, for example because the cache has a newer
+     * value.
+     */
+    public void discard(Object key) {
+        if (entries.remove(key) != null && entries.isEmpty()) {
+            mapping = null;
+        }
+    }
+
+    /**
+     * Decode the value for the key and put it in the cache with its expiry
+     * time, unless the cache already has a value for the key. Each entry is
+     * restored at most once.
+     * 
+     * @return the cached value, or null if the snapshot has no live entry for
+     *         the key.
+     */
+    public T restore(Object key, SimpleMemCache<T> cache) {
+        ByteBuffer buf = mapping;
+        Entry e = entries.remove(key);
+        if (entries.isEmpty()) {
+            // Release the mapping to the GC.
+            //
+            mapping = null;
+        }
+
+        if (e == null || buf == null) {
+            return null;
+        }
+
+        if (e.expiryTime > 0 && e.expiryTime <= System.currentTimeMillis()) {
+            return null;
+        }
+
+        ByteBuffer value = buf.duplicate();
+        value.position(e.offset);
+        value.limit(e.offset + e.length);
+
+        T v;
+        try {
+            v = codec.decode(new ByteBufferInputStream(value));
+        } catch (IOException ex) {
+            log.debug("Not restored {} {}", key, ex.getMessage());
+            return null;
+        }
+
+        return cache.restore(key, v, e.expiryTime);
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Key access traces for replaying against caches offline. Each access is
+ * recorded as a 64 bit key id: the value of a numeric key, otherwise a hash of
+ * the key.
+ * 
+ * Two formats are read. Binary traces, as written by {@link Writer}, are a
+ * magic number followed by big endian longs. Text traces, files ending in
+ * <code>.txt</code>, have one key per line, numeric or not.
+ */
+public final class CacheTrace {
+
+    private static final int MAGIC = 0x43545243; // "CTRC"
+
+    private CacheTrace() {
+    }
+
+    /**
+     * The id of the key as recorded in a trace.
+     */
+    public static long keyId(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        }
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Read all the key ids of the trace.
+     */
+    public static long[] read(Path file) throws IOException {
+        TLongArrayList ids = new TLongArrayList();
+
+        if (file.getFileName().toString().endsWith(".txt")) {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() == false) {
+                        ids.add(textId(line));
+                    }
+                }
+            }
+        } else {
+            try (InputStream is = Files.newInputStream(file);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a cache trace " + file);
+                }
+                try {
+                    for (;;) {
+                        ids.add(in.readLong());
+                    }
+                } catch (EOFException e) {
+                    // End of trace.
+                }
+            }
+        }
+
+        return ids.toArray();
+    }
+
+    private static long textId(String line) {
+        try {
+            return Long.parseLong(line);
+        } catch (NumberFormatException e) {
+            return keyId(line);
+        }
+    }
+
+    /**
+     * Writes a binary trace. Thread safe.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        public Writer(Path file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            out.writeInt(MAGIC);
+        }
+
+        public synchronized void record(Object key) throws IOException {
+            out.writeLong(keyId(key));
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Open addressing int keyed map holding an expiry time for each entry in an
+ * array parallel to the keys and values, so no per entry object is allocated.
+ * 
+ * Not thread safe. Callers must serialize access.
+ */
+public class ExpiringIntObjectMap<V> extends TIntObjectHashMap<V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient long[] _expiry;
+
+    /**
+     * Entries removed by {@link #get(int, long)} because they had expired,
+     * since the last {@link #takeCountExpired()}.
+     */
+    private transient int countExpired;
+
+    public ExpiringIntObjectMap() {
+        super();
+    }
+
+    public ExpiringIntObjectMap(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * Get the value if it has not expired. An expired entry is removed and
+     * counted in {@link #takeCountExpired()}.
+     */
+    public V get(int key, long now) {
+        int index = index(key);
+        if (index < 0) {
+            return null;
+        }
+        long expiryTime = _expiry[index];
+        if (expiryTime > 0 && expiryTime <= now) {
+            removeAt(index);
+            countExpired++;
+            return null;
+        }
+        return _values[index];
+    }
+
+    /**
+     * Return the number of expired entries removed by reads since the last
+     * call, and reset it.
+     */
+    public int takeCountExpired() {
+        int count = countExpired;
+        countExpired = 0;
+        return count;
+    }
+
+    /**
+     * Put the value with its expiry time. Zero means never expires.
+     */
+    public V put(int key, V value, long expiryTime) {
+        V prev = super.put(key, value);
+        _expiry[index(key)] = expiryTime;
+        return prev;
+    }
+
+    @Override
+    public V put(int key, V value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Remove the entries that have expired.
+     * 
+     * @return The number of entries removed.
+     */
+    public int removeExpired(long now) {
+        int count = 0;
+        tempDisableAutoCompaction();
+        try {
+            for (int i = _states.length; i-- > 0;) {
+                if (_states[i] == FULL && _expiry[i] > 0 && _expiry[i] <= now) {
+                    removeAt(i);
+                    count++;
+                }
+            }
+        } finally {
+            reenableAutoCompaction(false);
+        }
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        Arrays.fill(_expiry, 0);
+    }
+
+    @Override
+    protected int setUp(int initialCapacity) {
+        int capacity = super.setUp(initialCapacity);
+        _expiry = new long[capacity];
+        return capacity;
+    }
+
+    @Override
+    protected void rehash(int newCapacity) {
+        int[] oldKeys = _set;
+        byte[] oldStates = _states;
+        long[] oldExpiry = _expiry;
+
+        super.rehash(newCapacity);
+
+        // Move the expiry times to the new slots of their keys.
+        //
+        _expiry = new long[newCapacity];
+        for (int i = oldKeys.length; i-- > 0;) {
+            if (oldStates[i] == FULL) {
+                _expiry[index(oldKeys[i])] = oldExpiry[i];
+            }
+        }
+    }
+
+    /**
+     * Writes the expiry times after the keys and values.
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeInt(size());
+        for (int i = _states.length; i-- > 0;) {
+            if (_states[i] == FULL) {
+                out.writeInt(_set[i]);
+                out.writeLong(_expiry[i]);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        super.readExternal(in);
+        for (int i = in.readInt(); i-- > 0;) {
+            int key = in.readInt();
+            _expiry[index(key)] = in.readLong();
+        }
+    }
+
+    @Override
+    protected void removeAt(int index) {
+        _expiry[index] = 0;
+        super.removeAt(index);
+    }
+}
@@ -17,9 +17,15 @@
 package com.github.am0e.cache.impl;
 
 import java.util.Map;
+import java.util.function.Function;
 
 import com.github.am0e.cache.ICache;
 
+/**
+ * Cache backed by a map. Entries never expire, the time to live given to
+ * {@link #put(Object, Object, long)} and {@link #putAll(Map, long)} is
+ * ignored.
+ */
 public class HashMapCache<T> implements ICache<T> {
 
     private Map<Object, T> map;
@@ -43,6 +49,23 @@ public class HashMapCache<T> implements ICache<T> {
         return map.get(key);
     }
 
+    /**
+     * Uses {@link Map#computeIfAbsent}, so the load is atomic if the map is a
+     * concurrent map.
+     */
+    @Override
+    public T get(Object key, Function<Object, ? extends T> loader) {
+        return map.computeIfAbsent(key, loader);
+    }
+
+    /**
+     * The time to live is ignored.
+     */
+    @Override
+    public void putAll(Map<?, ? extends T> entries, long ttl) {
+        map.putAll(entries);
+    }
+
     @Override
     public void remove(Object key) {
         map.remove(key);
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.json.JsonObjectReader;
+import com.github.am0e.json.JsonObjectWriter;
+
+/**
+ * Codec storing values as UTF-8 json using {@link JsonObjectWriter} and
+ * {@link JsonObjectReader}.
+ */
+public class JsonCodec<T> implements CacheCodec<T> {
+
+    private final Class<T> type;
+
+    public JsonCodec(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public void encode(T value, OutputStream out) throws IOException {
+        new JsonObjectWriter().write(out, value);
+    }
+
+    @Override
+    public T decode(InputStream in) throws IOException {
+        return new JsonObjectReader().readObject(in, type);
+    }
+}
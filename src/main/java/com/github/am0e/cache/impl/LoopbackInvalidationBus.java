@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.github.am0e.cache.InvalidationBus;
+
+/**
+ * In memory bus delivering invalidations synchronously to the listeners in this
+ * JVM.
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void publish(String source, String cacheName, Object key) {
+        deliver(source, cacheName, key);
+    }
+
+    @Override
+    public void publishTag(String source, String cacheName, String tag) {
+        deliverTag(source, cacheName, tag);
+    }
+
+    protected void deliver(String source, String cacheName, Object key) {
+        for (Listener it : listeners) {
+            it.invalidate(source, cacheName, key);
+        }
+    }
+
+    protected void deliverTag(String source, String cacheName, String tag) {
+        for (Listener it : listeners) {
+            it.invalidateTag(source, cacheName, tag);
+        }
+    }
+}
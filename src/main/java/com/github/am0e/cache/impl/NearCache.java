@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.ICache;
+import com.github.am0e.cache.InvalidationBus;
+
+/**
+ * Two level cache. A small L1 held per core sits in front of a shared L2
+ * cache. Changes made through the near cache update the L2 and are published
+ * on an {@link InvalidationBus}. Invalidations from other sources remove the
+ * key from both levels.
+ * 
+ * The L1 is a set of direct mapped tables, one per stripe of threads, so a hit
+ * is a single array read with no locking. A key colliding with another simply
+ * replaces it. L1 entries also expire after the L1 TTL, bounding staleness if
+ * an invalidation is lost.
+ * 
+ * A fill from the L2 is discarded if an invalidation happened while it was
+ * being read, so a fill cannot reinstate a value that was just invalidated.
+ */
+public class NearCache<T> implements ICache<T>, InvalidationBus.Listener {
+
+    private static final class Entry {
+        final Object key;
+        final Object value;
+        final long expiryTime;
+
+        Entry(Object key, Object value, long expiryTime) {
+            this.key = key;
+            this.value = value;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private final String id;
+    private final String cacheName;
+    private final ICache<T> l2;
+    private final InvalidationBus bus;
+    private final long l1Ttl;
+    private final int stripeMask;
+    private final int slotMask;
+    private final AtomicReferenceArray<Entry>[] stripes;
+    private final AtomicLong invalidations;
+
+    /**
+     * @param l1Size
+     *            slots in each L1 stripe, rounded up to a power of two.
+     * @param l1Ttl
+     *            time to live of L1 entries in ms.
+     */
+    public NearCache(String cacheName, ICache<T> l2, InvalidationBus bus, int l1Size, long l1Ttl) {
+        this.id = UUID.randomUUID().toString();
+        this.cacheName = cacheName;
+        this.l2 = l2;
+        this.bus = bus;
+        this.l1Ttl = l1Ttl;
+        this.invalidations = new AtomicLong();
+
+        int stripeCount = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+        int slots = ceilingPowerOfTwo(Math.max(l1Size, 2));
+        this.stripeMask = stripeCount - 1;
+        this.slotMask = slots - 1;
+        this.stripes = newStripes(stripeCount, slots);
+
+        bus.subscribe(this);
+    }
+
+    public final String getCacheName() {
+        return cacheName;
+    }
+
+    public final ICache<T> getL2() {
+        return l2;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(Object key) {
+        AtomicReferenceArray<Entry> stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        int slot = spread(key.hashCode()) & slotMask;
+
+        Entry e = stripe.get(slot);
+        if (e != null && e.key.equals(key)) {
+            if (e.expiryTime > System.currentTimeMillis()) {
+                return (T) e.value;
+            }
+            stripe.compareAndSet(slot, e, null);
+        }
+
+        // Fill from the L2, unless invalidated meanwhile.
+        //
+        long stamp = invalidations.get();
+        T value = l2.get(key);
+        if (value != null) {
+            e = new Entry(key, value, System.currentTimeMillis() + l1Ttl);
+            stripe.set(slot, e);
+            if (invalidations.get() != stamp) {
+                stripe.compareAndSet(slot, e, null);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, T value) {
+        l2.put(key, value);
+        changed(key);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl) {
+        l2.put(key, value, ttl);
+        changed(key);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl, String... tags) {
+        l2.put(key, value, ttl, tags);
+        changed(key);
+    }
+
+    @Override
+    public void remove(Object key) {
+        l2.remove(key);
+        changed(key);
+    }
+
+    /**
+     * The L1 does not keep tags, so it is cleared. Peers invalidate the tag in
+     * their L2 and clear their L1.
+     */
+    @Override
+    public void invalidateTag(String tag) {
+        l2.invalidateTag(tag);
+        invalidateL1(null);
+        bus.publishTag(id, cacheName, tag);
+    }
+
+    @Override
+    public void clearCache() {
+        l2.clearCache();
+        changed(null);
+    }
+
+    @Override
+    public CacheStats stats() {
+        return l2.stats();
+    }
+
+    /**
+     * Invalidation from the bus. Those from other sources also apply to the
+     * L2, ours have already been applied.
+     */
+    @Override
+    public void invalidate(String source, String cacheName, Object key) {
+        if (this.cacheName.equals(cacheName) == false || id.equals(source)) {
+            return;
+        }
+        if (key == null) {
+            l2.clearCache();
+        } else {
+            l2.remove(key);
+        }
+        invalidateL1(key);
+    }
+
+    @Override
+    public void invalidateTag(String source, String cacheName, String tag) {
+        if (this.cacheName.equals(cacheName) == false || id.equals(source)) {
+            return;
+        }
+        l2.invalidateTag(tag);
+        invalidateL1(null);
+    }
+
+    /**
+     * Stop listening for invalidations.
+     */
+    public void close() {
+        bus.unsubscribe(this);
+    }
+
+    private void changed(Object key) {
+        invalidateL1(key);
+        bus.publish(id, cacheName, key);
+    }
+
+    private void invalidateL1(Object key) {
+        invalidations.incrementAndGet();
+
+        if (key == null) {
+            for (AtomicReferenceArray<Entry> stripe : stripes) {
+                for (int i = 0; i < stripe.length(); i++) {
+                    stripe.set(i, null);
+                }
+            }
+        } else {
+            int slot = spread(key.hashCode()) & slotMask;
+            for (AtomicReferenceArray<Entry> stripe : stripes) {
+                Entry e = stripe.get(slot);
+                if (e != null && e.key.equals(key)) {
+                    stripe.compareAndSet(slot, e, null);
+                }
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) * 0x45d9f3b;
+    }
+
+    /**
+     * Java cannot create an array of a generic type, so create the raw array.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<Entry>[] newStripes(int count, int slots) {
+        AtomicReferenceArray<Entry>[] stripes = new AtomicReferenceArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicReferenceArray<>(slots);
+        }
+        return stripes;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.am0e.cache.ICache;
+import com.github.am0e.cache.ICacheManager;
+import com.github.am0e.cache.InvalidationBus;
+
+/**
+ * Cache manager handing out {@link NearCache} layers over the registered
+ * {@link SimpleMemCache} caches, all sharing one invalidation bus.
+ */
+public class NearCacheManager<T> implements ICacheManager<T> {
+
+    private final InvalidationBus bus;
+    private final int l1Size;
+    private final long l1Ttl;
+    private final ConcurrentHashMap<String, NearCache<T>> caches = new ConcurrentHashMap<>();
+
+    public NearCacheManager(InvalidationBus bus, int l1Size, long l1Ttl) {
+        this.bus = bus;
+        this.l1Size = l1Size;
+        this.l1Ttl = l1Ttl;
+    }
+
+    @Override
+    public ICache<T> getCache(String cacheName) {
+        NearCache<T> cache = caches.get(cacheName);
+        if (cache == null) {
+            cache = caches.computeIfAbsent(cacheName,
+                    k -> new NearCache<T>(k, SimpleMemCache.getCache(k), bus, l1Size, l1Ttl));
+        }
+        return cache;
+    }
+}
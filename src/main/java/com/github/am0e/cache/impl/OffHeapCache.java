@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.ICache;
+import com.github.am0e.cache.RemovalCause;
+import com.github.am0e.msgs.Msgs;
+import com.github.am0e.utils.Validate;
+
+/**
+ * Cache storing serialized values off the java heap in direct
+ * {@link ByteBuffer} slabs. Only the keys and a small location record per
+ * entry are kept on the heap.
+ * 
+ * Values are appended to the current slab. When it is full the next slab is
+ * used, and once all the slabs have been used the oldest slab is recycled,
+ * evicting all the entries written to it. Replaced and removed values are not
+ * reclaimed until their slab is recycled.
+ * 
+ * Reads copy the value out of the slab optimistically, without locking, and
+ * retry under a read lock if the slab was recycled meanwhile.
+ */
+public class OffHeapCache<T> implements ICache<T>, SimpleMemCacheMBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapCache.class);
+
+    /**
+     * Largest encode buffer kept for reuse by a thread.
+     */
+    private static final int MAX_REUSE_BUFFER = 64 * 1024;
+
+    /**
+     * Where a value is stored. The generation identifies the use of the slab
+     * the value was written to. The sequence orders the writes, so a slow
+     * writer cannot replace the location of a later write of the key.
+     */
+    private static final class Location {
+        final int slab;
+        final long generation;
+        final int offset;
+        final int length;
+        final long expiryTime;
+        final long sequence;
+
+        Location(int slab, long generation, int offset, int length, long expiryTime, long sequence) {
+            this.slab = slab;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.expiryTime = expiryTime;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Slab {
+        final int index;
+        final StampedLock lock = new StampedLock();
+        ByteBuffer buffer;
+        volatile long generation;
+        int position;
+
+        Slab(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Byte array output stream exposing its buffer to avoid the copy made by
+     * toByteArray().
+     */
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer() {
+            super(1024);
+        }
+
+        byte[] buf() {
+            return buf;
+        }
+    }
+
+    private static final ThreadLocal<EncodeBuffer> encodeBuffer = new ThreadLocal<>();
+
+    private final String cacheName;
+    private final long ttl;
+    private final int slabSize;
+    private final CacheCodec<T> codec;
+    private final Slab[] slabs;
+    private final ReentrantLock allocLock;
+    private final ConcurrentHashMap<Object, Location> index;
+    private int current;
+    private long sequence;
+    private final StatsCounter stats;
+
+    @SuppressWarnings("unchecked")
+    OffHeapCache(SimpleMemCacheBean def) {
+        Validate.paramIsTrue(def.getOffHeapCapacity() > 0, "Cache {} requires offHeapCapacity", def.getCacheName());
+        Validate.paramIsTrue(def.getSlabSize() > 0, "Cache {} requires slabSize", def.getCacheName());
+
+        this.cacheName = def.getCacheName();
+        this.ttl = def.getTtlVal();
+        this.slabSize = def.getSlabSize();
+        this.codec = def.getCodec() != null ? (CacheCodec<T>) def.getCodec() : new SerializingCodec<>();
+        this.allocLock = new ReentrantLock();
+        this.stats = new StatsCounter();
+        this.index = new ConcurrentHashMap<>(16, 0.75F, Math.max(1, def.getConcurrencyLevel()));
+
+        int count = (int) Math.max(2, def.getOffHeapCapacity() / slabSize);
+        this.slabs = new Slab[count];
+        for (int i = 0; i < count; i++) {
+            slabs[i] = new Slab(i);
+        }
+
+        log.debug(Msgs.format("Off heap cache name={} TTL={} slabs={}x{}", cacheName, ttl, count, slabSize));
+    }
+
+    @Override
+    public void put(Object key, T value) {
+        if (ttl <= 0)
+            put(key, value, -1);
+        else
+            put(key, value, ttl);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+
+        long expiryTime = (ttl == -1 ? -1 : (System.currentTimeMillis() + ttl));
+
+        EncodeBuffer out = encodeBuffer.get();
+        if (out == null) {
+            out = new EncodeBuffer();
+            encodeBuffer.set(out);
+        }
+        out.reset();
+
+        try {
+            codec.encode(value, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        int length = out.size();
+        if (length > slabSize) {
+            log.debug("Too large {} {}", key, length);
+            remove(key);
+            if (out.buf().length > MAX_REUSE_BUFFER) {
+                encodeBuffer.remove();
+            }
+            return;
+        }
+
+        // The slab may be recycled between reserving the space and copying
+        // the value in. Reserve again in the slab now current, giving up if
+        // every slab is recycled under us.
+        //
+        boolean stored = false;
+        for (int attempt = 0; attempt < slabs.length && stored == false; attempt++) {
+            stored = store(key, out.buf(), length, expiryTime);
+        }
+        if (stored) {
+            stats.recordAdded(1);
+        } else {
+            log.debug("Slab recycled {}", key);
+            remove(key);
+        }
+
+        if (out.buf().length > MAX_REUSE_BUFFER) {
+            encodeBuffer.remove();
+        }
+    }
+
+    /**
+     * Reserve space for the value and copy it in. Returns false if the slab
+     * was recycled before the copy.
+     */
+    private boolean store(Object key, byte[] data, int length, long expiryTime) {
+        // Reserve the space.
+        //
+        Slab slab;
+        int offset;
+        long generation;
+        long seq;
+
+        allocLock.lock();
+        try {
+            slab = slabs[current];
+            if (slab.buffer == null) {
+                slab.buffer = ByteBuffer.allocateDirect(slabSize);
+            } else if (slab.position + length > slabSize) {
+                slab = nextSlab();
+            }
+            offset = slab.position;
+            slab.position += length;
+            generation = slab.generation;
+            seq = ++sequence;
+        } finally {
+            allocLock.unlock();
+        }
+
+        // Copy the value in. The read lock stops the slab being recycled
+        // meanwhile, but does not exclude other writers as the space is ours.
+        // Keep the location of a later write of the key if it got in first.
+        //
+        long stamp = slab.lock.readLock();
+        try {
+            if (slab.generation != generation) {
+                return false;
+            }
+            ByteBuffer buf = slab.buffer.duplicate();
+            buf.position(offset);
+            buf.put(data, 0, length);
+
+            Location loc = new Location(slab.index, generation, offset, length, expiryTime, seq);
+            index.merge(key, loc, (prev, it) -> prev.sequence > it.sequence ? prev : it);
+            return true;
+        } finally {
+            slab.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public T get(Object key) {
+        Location loc = index.get(key);
+        if (loc == null) {
+            stats.recordMisses(1);
+            return null;
+        }
+
+        if (loc.expiryTime > 0 && loc.expiryTime <= System.currentTimeMillis()) {
+            log.debug("Expired {}", key);
+            if (index.remove(key, loc)) {
+                stats.recordEviction(RemovalCause.EXPIRED);
+            }
+            stats.recordMisses(1);
+            return null;
+        }
+
+        byte[] data = read(loc);
+        if (data == null) {
+            // Slab recycled.
+            //
+            index.remove(key, loc);
+            stats.recordMisses(1);
+            return null;
+        }
+
+        try {
+            T value = codec.decode(new ByteArrayInputStream(data));
+            stats.recordHits(1);
+            return value;
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records the time taken by the loader.
+     */
+    @Override
+    public T get(Object key, Function<Object, ? extends T> loader) {
+        T value = get(key);
+        if (value == null) {
+            long start = System.nanoTime();
+            try {
+                value = loader.apply(key);
+            } catch (RuntimeException | Error e) {
+                stats.recordLoad(System.nanoTime() - start, false);
+                throw e;
+            }
+            stats.recordLoad(System.nanoTime() - start, true);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void remove(Object key) {
+        index.remove(key);
+    }
+
+    @Override
+    public void clearCache() {
+        allocLock.lock();
+        try {
+            index.clear();
+            for (Slab slab : slabs) {
+                long stamp = slab.lock.writeLock();
+                try {
+                    slab.generation++;
+                    slab.position = 0;
+                } finally {
+                    slab.lock.unlockWrite(stamp);
+                }
+            }
+            current = 0;
+        } finally {
+            allocLock.unlock();
+        }
+
+        this.stats.reset();
+    }
+
+    /**
+     * Copy the value out of its slab. Returns null if the slab has been
+     * recycled.
+     */
+    private byte[] read(Location loc) {
+        Slab slab = slabs[loc.slab];
+        byte[] data = new byte[loc.length];
+
+        long stamp = slab.lock.tryOptimisticRead();
+        if (stamp != 0 && slab.generation == loc.generation) {
+            ByteBuffer buf = slab.buffer.duplicate();
+            buf.position(loc.offset);
+            buf.get(data);
+            if (slab.lock.validate(stamp)) {
+                return data;
+            }
+        }
+
+        stamp = slab.lock.readLock();
+        try {
+            if (slab.generation != loc.generation) {
+                return null;
+            }
+            ByteBuffer buf = slab.buffer.duplicate();
+            buf.position(loc.offset);
+            buf.get(data);
+            return data;
+        } finally {
+            slab.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Move to the next slab, allocating it or recycling it and evicting its
+     * entries. Called with the alloc lock held.
+     * 
+     * The entries are found by scanning the index rather than kept per slab,
+     * so keys that were replaced or removed are not held until the slab is
+     * recycled. The scan is once per slab filled.
+     */
+    private Slab nextSlab() {
+        current = (current + 1) % slabs.length;
+        Slab slab = slabs[current];
+
+        if (slab.buffer == null) {
+            slab.buffer = ByteBuffer.allocateDirect(slabSize);
+            return slab;
+        }
+
+        long generation;
+
+        long stamp = slab.lock.writeLock();
+        try {
+            generation = slab.generation;
+            slab.generation = generation + 1;
+            slab.position = 0;
+        } finally {
+            slab.lock.unlockWrite(stamp);
+        }
+
+        for (Map.Entry<Object, Location> e : index.entrySet()) {
+            Location loc = e.getValue();
+            if (loc.slab == slab.index && loc.generation == generation && index.remove(e.getKey(), loc)) {
+                stats.recordEviction(RemovalCause.SIZE);
+            }
+        }
+        return slab;
+    }
+
+    public final int getSize() {
+        return index.size();
+    }
+
+    public final String getCacheName() {
+        return cacheName;
+    }
+
+    public final long getTtl() {
+        return ttl;
+    }
+
+    public final long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    public final long getMaxWeight() {
+        return getCapacity();
+    }
+
+    /**
+     * Bytes held by the live entries.
+     */
+    public final long getWeightedSize() {
+        long size = 0;
+        for (Location loc : index.values()) {
+            size += loc.length;
+        }
+        return size;
+    }
+
+    public final long getCountAdded() {
+        return stats.getCountAdded();
+    }
+
+    public final long getCountHits() {
+        return stats.getCountHits();
+    }
+
+    public final long getCountMisses() {
+        return stats.getCountMisses();
+    }
+
+    public final long getCountExpires() {
+        return stats.getCountEvictions(RemovalCause.EXPIRED);
+    }
+
+    public final long getCountEvictions() {
+        return stats.getCountEvictions();
+    }
+
+    public final double getHitRate() {
+        return stats.getHitRate();
+    }
+
+    public final double getAverageLoadTime() {
+        return stats.getAverageLoadTime() / 1000000.0;
+    }
+
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+}
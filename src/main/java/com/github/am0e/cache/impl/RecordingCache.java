@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.ICache;
+
+/**
+ * Records the keys read from a cache to a {@link CacheTrace} so that the
+ * accesses can be replayed offline. Wrap a production cache with it for as
+ * long as the trace is wanted. If the trace cannot be written recording stops
+ * and the cache carries on.
+ */
+public class RecordingCache<T> implements ICache<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordingCache.class);
+
+    private final ICache<T> cache;
+    private final CacheTrace.Writer trace;
+    private volatile boolean recording = true;
+
+    public RecordingCache(ICache<T> cache, CacheTrace.Writer trace) {
+        this.cache = cache;
+        this.trace = trace;
+    }
+
+    public final ICache<T> getCache() {
+        return cache;
+    }
+
+    private void record(Object key) {
+        if (recording) {
+            try {
+                trace.record(key);
+            } catch (IOException e) {
+                log.warn("Trace recording stopped", e);
+                recording = false;
+            }
+        }
+    }
+
+    @Override
+    public T get(Object key) {
+        record(key);
+        return cache.get(key);
+    }
+
+    @Override
+    public T get(Object key, Function<Object, ? extends T> loader) {
+        record(key);
+        return cache.get(key, loader);
+    }
+
+    @Override
+    public Map<Object, T> getAll(Collection<?> keys) {
+        for (Object key : keys) {
+            record(key);
+        }
+        return cache.getAll(keys);
+    }
+
+    @Override
+    public Map<Object, T> getAll(Collection<?> keys, Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        for (Object key : keys) {
+            record(key);
+        }
+        return cache.getAll(keys, bulkLoader);
+    }
+
+    @Override
+    public void put(Object key, T value) {
+        cache.put(key, value);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl) {
+        cache.put(key, value, ttl);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl, String... tags) {
+        cache.put(key, value, ttl, tags);
+    }
+
+    @Override
+    public void putAll(Map<?, ? extends T> entries, long ttl) {
+        cache.putAll(entries, ttl);
+    }
+
+    @Override
+    public void remove(Object key) {
+        cache.remove(key);
+    }
+
+    @Override
+    public void removeAll(Collection<?> keys) {
+        cache.removeAll(keys);
+    }
+
+    @Override
+    public void invalidateTag(String tag) {
+        cache.invalidateTag(tag);
+    }
+
+    @Override
+    public void clearCache() {
+        cache.clearCache();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
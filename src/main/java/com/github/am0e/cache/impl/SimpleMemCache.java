@@ -16,48 +16,138 @@
  *******************************************************************************/
 package com.github.am0e.cache.impl;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.am0e.cache.AsyncCache;
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.Expiry;
 import com.github.am0e.cache.ICache;
+import com.github.am0e.cache.RemovalCause;
 import com.github.am0e.lib.AntLib;
 import com.github.am0e.msgs.Msgs;
+import com.github.am0e.utils.Validate;
 
 /**
  * Simple in memory cache. Uses {@link SoftReference} for items in the cached so
  * that the GC can reclaim memory.
  * 
+ * Each entry is a {@link CacheEntry} holding the value and its expiry time in
+ * final fields, and the time is read from the {@link CoarseClock}, so a hit is
+ * a map lookup and two field reads without allocating.
+ * 
+ * The TTL of each item may be calculated by an {@link Expiry} and shortened by
+ * a random jitter, so items written together do not expire together. Items
+ * may also expire when not read for the configured access time.
+ * 
+ * Items put with tags are indexed by tag so they can be removed together by
+ * {@link #invalidateTag(String)}. Removed items are taken out of the index.
+ * 
+ * Items with a TTL are tracked in a {@link TimerWheel} and removed when they
+ * expire. Writers do not lock the wheel, they queue the timers to schedule and
+ * cancel, and the queue is applied by whichever thread gets the lock. The
+ * wheel is advanced at most once a second by writers and by readers that find
+ * an expired item, or by a background task if a cleanup interval is
+ * configured. The task holds the cache weakly, so a cache that is no longer
+ * used can still be collected.
+ * 
+ * Soft referenced items are registered with a {@link ReferenceQueue}. Items
+ * cleared by the GC are polled from the queue on each read and write and their
+ * entries removed, so the cost is in proportion to the number cleared.
+ * 
+ * The loading gets are single flight. Concurrent misses on a key wait for the
+ * one load in progress rather than each calling the loader. The futures of the
+ * loads in progress are shared by the blocking and the {@link AsyncCache}
+ * gets.
+ * 
+ * If a refresh interval is configured, a hit on an item older than the interval
+ * returns the cached value and reloads it in the background, so hot items are
+ * replaced before they expire. Items read with a loader are reloaded with it,
+ * others with the loader configured on the cache, if any.
+ * 
+ * If a snapshot file is configured the cache is warmed from it when registered,
+ * each entry restored lazily the first time its key is missed. See
+ * {@link #writeSnapshots()}.
+ * 
+ * Registered caches are held in a concurrent map, so looking up a cache does
+ * not lock, and each is registered as an MBean named
+ * <code>com.github.am0e.cache:type=Cache,name="cacheName"</code>.
+ * 
  * @author Anthony (ARPT)
  *
  */
-public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
+public class SimpleMemCache<T> implements ICache<T>, AsyncCache<T>, SimpleMemCacheMBean {
 
     private static final Logger log = LoggerFactory.getLogger(SimpleMemCache.class);
 
     private long ttl;
+    private long refreshAfter;
+    private Function<Object, ? extends T> refreshLoader;
+    private Executor refreshExecutor;
     private String cacheName;
     private boolean softRefs;
-    private volatile long countAdded;
-    private volatile int countHits;
-    private volatile int countMisses;
-    private volatile int countExpires;
-    private volatile int countEvictions;
-    private volatile long cleanCache;
+    private boolean weakRefs;
+    private int ttlJitter;
+    private long idleTime;
+    private Expiry<T> expiry;
+    private final ReentrantLock tagLock;
+    private final TreeMap<String, Set<Object>> tagIndex;
+    private final StatsCounter stats;
     private final ReentrantLock cleanLock;
-    private Map<Object, CacheItem> cache;
-    private final static int CLEAN_CACHE_COUNT = 1000;
+    private final ReferenceQueue<Object> refQueue;
+    private final TimerWheel timerWheel;
+    private final ConcurrentLinkedQueue<TimerEvent> timerEvents;
+    private volatile int countTimers;
+    private volatile long nextExpiry;
+    private Map<Object, CacheEntry> cache;
+    private final ConcurrentHashMap<Object, CompletableFuture<T>> loads;
+    private final Path snapshotFile;
+    private final CacheCodec<T> codec;
+    private volatile CacheSnapshot<T> snapshot;
+    private volatile ScheduledFuture<?> cleanupTask;
+    private final static long EXPIRY_INTERVAL = 1000;
+
+    private static ScheduledExecutorService cleanupScheduler;
+
+    private static final String MBEAN_DOMAIN = "com.github.am0e.cache";
+    private static final Object mbeanLock = new Object();
 
-    private static HashMap<String, ICache<?>> globalCaches = new HashMap<>();
+    private static final ConcurrentHashMap<String, ICache<?>> globalCaches = new ConcurrentHashMap<>();
 
     public static <T> ICache<T> getCache(Class<?> claz) {
         String name = claz.getName();
@@ -71,49 +161,188 @@ public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
 
     @SuppressWarnings("unchecked")
     public static <T> ICache<T> getCache(String id) {
-        synchronized (globalCaches) {
-            ICache<T> cache = (ICache<T>) globalCaches.get(id);
+        ICache<T> cache = (ICache<T>) globalCaches.get(id);
 
-            if (cache == null) {
-                cache = registerCache(new SimpleMemCacheBean(id));
+        if (cache == null) {
+            // Create the cache once, even if several threads miss.
+            //
+            boolean[] created = new boolean[1];
+            cache = (ICache<T>) globalCaches.computeIfAbsent(id, k -> {
+                created[0] = true;
+                return createCache(new SimpleMemCacheBean(k));
+            });
+            if (created[0]) {
+                registerMBean(id, cache);
             }
-
-            return cache;
         }
+
+        return cache;
     }
 
     static public <T> ICache<T> registerCache(SimpleMemCacheBean def) {
-        synchronized (globalCaches) {
-            SimpleMemCache<T> cache = new SimpleMemCache<>(def);
-            globalCaches.put(cache.cacheName, cache);
-            return cache;
+        ICache<T> cache = createCache(def);
+        ICache<?> prev = globalCaches.put(def.getCacheName(), cache);
+        if (prev instanceof SimpleMemCache) {
+            ((SimpleMemCache<?>) prev).stopCleanup();
         }
+        registerMBean(def.getCacheName(), cache);
+        return cache;
     }
 
-    public static ICache<?>[] getCaches() {
-        synchronized (globalCaches) {
-            return globalCaches.values().toArray(new SimpleMemCache[0]);
+    @SuppressWarnings("unchecked")
+    private static <T> ICache<T> createCache(SimpleMemCacheBean def) {
+        ICache<T> cache;
+        if (def.getOffHeapCapacity() > 0) {
+            cache = new OffHeapCache<>(def);
+        } else if (def.getMaxEntries() > 0 || def.getMaxWeight() > 0 || def.getMaxMemoryVal() > 0) {
+            cache = new BoundedMemCache<>(def);
+        } else {
+            cache = new SimpleMemCache<>(def);
+        }
+
+        if (cache instanceof SimpleMemCache) {
+            ((SimpleMemCache<T>) cache).openSnapshot();
+        }
+        return cache;
+    }
+
+    /**
+     * Name of the MBean for a cache.
+     */
+    public static ObjectName getObjectName(String cacheName) throws JMException {
+        return new ObjectName(MBEAN_DOMAIN + ":type=Cache,name=" + ObjectName.quote(cacheName));
+    }
+
+    /**
+     * Register the cache with the platform MBean server, replacing the MBean of
+     * a previous cache with the same name. Registration failures are logged
+     * and ignored.
+     */
+    private static void registerMBean(String cacheName, ICache<?> cache) {
+        if (cache instanceof SimpleMemCacheMBean == false) {
+            return;
+        }
+
+        synchronized (mbeanLock) {
+            // Another thread may have replaced the cache meanwhile.
+            //
+            if (globalCaches.get(cacheName) != cache) {
+                return;
+            }
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = getObjectName(cacheName);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(new StandardMBean((SimpleMemCacheMBean) cache, SimpleMemCacheMBean.class), name);
+
+            } catch (JMException | RuntimeException e) {
+                log.warn(Msgs.format("MBean not registered {}", cacheName), e);
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of each registered cache that has a snapshot file
+     * configured. Typically called on shutdown.
+     */
+    public static void writeSnapshots() {
+        for (ICache<?> cache : getCaches()) {
+            if (cache instanceof SimpleMemCache && ((SimpleMemCache<?>) cache).snapshotFile != null) {
+                try {
+                    ((SimpleMemCache<?>) cache).writeSnapshot();
+                } catch (IOException e) {
+                    log.warn(Msgs.format("Snapshot failed {}", ((SimpleMemCache<?>) cache).cacheName), e);
+                }
+            }
         }
     }
 
+    public static ICache<?>[] getCaches() {
+        return globalCaches.values().toArray(new ICache[0]);
+    }
+
+    @SuppressWarnings("unchecked")
     SimpleMemCache(SimpleMemCacheBean def) {
         this.ttl = def.getTtlVal();
+        this.refreshAfter = def.getRefreshAfterVal();
+        this.refreshLoader = (Function<Object, ? extends T>) def.getRefreshLoader();
+        this.refreshExecutor = def.getRefreshExecutor();
         this.cacheName = def.getCacheName();
         this.cache = new ConcurrentHashMap<>(16, 0.75F, 8);
         this.softRefs = def.isUseSoftReferences();
+        this.weakRefs = def.isUseWeakReferences();
+        this.ttlJitter = def.getTtlJitter();
+        this.idleTime = Math.max(0, def.getExpireAfterAccessVal());
+        this.expiry = (Expiry<T>) def.getExpiry();
+        this.tagLock = new ReentrantLock();
+        this.tagIndex = new TreeMap<>();
         this.cleanLock = new ReentrantLock();
-        this.cleanCache = CLEAN_CACHE_COUNT;
+        this.refQueue = new ReferenceQueue<>();
+        this.stats = new StatsCounter();
+        this.loads = new ConcurrentHashMap<>();
+        this.snapshotFile = def.getSnapshotFile() != null ? Paths.get(def.getSnapshotFile()) : null;
+        this.codec = def.getCodec() != null ? (CacheCodec<T>) def.getCodec() : new SerializingCodec<>();
+        this.timerWheel = new TimerWheel(this::expireItem, CoarseClock.currentTimeMillis());
+        this.timerEvents = new ConcurrentLinkedQueue<>();
 
         if (def.getConcurrencyLevel() > 0) {
             this.cache = new ConcurrentHashMap<>(16, 0.75F, def.getConcurrencyLevel());
         } else {
-            Map<Object, CacheItem> map = AntLib.newHashMap();
+            Map<Object, CacheEntry> map = AntLib.newHashMap();
             this.cache = Collections.synchronizedMap(map);
         }
 
+        long interval = def.getCleanupIntervalVal();
+        if (interval > 0) {
+            this.cleanupTask = scheduleCleanUp(this, interval);
+        }
+
         log.debug(Msgs.format("Cache name={} TTL={} CL={}", cacheName, ttl, def.getConcurrencyLevel()));
     }
 
+    /**
+     * Schedule the periodic clean up of the cache. The task only holds the
+     * cache weakly and cancels itself once the cache has been collected.
+     */
+    private static ScheduledFuture<?> scheduleCleanUp(SimpleMemCache<?> cache, long interval) {
+        WeakReference<SimpleMemCache<?>> ref = new WeakReference<>(cache);
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+
+        task.set(getCleanupScheduler().scheduleWithFixedDelay(() -> {
+            SimpleMemCache<?> it = ref.get();
+            if (it != null) {
+                it.cleanUp();
+            } else if (task.get() != null) {
+                task.get().cancel(false);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS));
+
+        return task.get();
+    }
+
+    /**
+     * Cancel the periodic clean up, when the cache is replaced.
+     */
+    private void stopCleanup() {
+        ScheduledFuture<?> task = cleanupTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getCleanupScheduler() {
+        if (cleanupScheduler == null) {
+            cleanupScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SimpleMemCache-cleanup");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return cleanupScheduler;
+    }
+
     public void put(Object key, T value) {
         // this.cache.values().toArray(new Object[0]);
         // this.cache.keySet().toArray(new Object[0]);
@@ -124,27 +353,194 @@ public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
     }
 
     public void put(Object key, T value, long ttl) {
-        long expiryTime = (ttl == -1 ? -1 : (System.currentTimeMillis() + ttl));
+        long now = CoarseClock.currentTimeMillis();
+        store(key, value, now, ttl, null);
+
+        stats.recordAdded(1);
+
+        drainReferenceQueue();
+        expireEntries(now);
+    }
+
+    /**
+     * Put all the entries with one timestamp, recording the statistics once.
+     */
+    @Override
+    public void putAll(Map<?, ? extends T> entries, long ttl) {
+        long now = CoarseClock.currentTimeMillis();
+
+        for (Map.Entry<?, ? extends T> e : entries.entrySet()) {
+            store(e.getKey(), e.getValue(), now, ttl, null);
+        }
+
+        stats.recordAdded(entries.size());
+
+        // Each store only queued its timer, so the clean lock is taken once
+        // for the whole batch.
+        //
+        drainReferenceQueue();
+        expireEntries(now);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl, String... tags) {
+        long now = CoarseClock.currentTimeMillis();
+        store(key, value, now, ttl, tags.length > 0 ? tags.clone() : null);
+
+        stats.recordAdded(1);
 
-        if (softRefs) {
-            cache.put(key, new SoftRefCacheItem(value, expiryTime));
+        drainReferenceQueue();
+        expireEntries(now);
+    }
+
+    private void store(Object key, T value, long now, long ttl, String[] tags) {
+        CacheEntry item = newEntry(key, value, now, expiryTime(key, value, now, ttl), tags);
+        if (tags != null) {
+            tag(key, tags);
+        }
+        stored(key, value, item, cache.put(key, item));
+    }
+
+    /**
+     * Replace the item with a new value if it is still the one cached under
+     * the key. The new entry keeps the item's tags and lifetime.
+     */
+    boolean replace(Object key, CacheEntry item, T value, long now) {
+        long expiryTime = (item.expiryTime > 0) ? now + (item.expiryTime - item.writeTime) : item.expiryTime;
+        CacheEntry entry = newEntry(key, value, now, expiryTime, item.tags);
+        if (cache.replace(key, item, entry)) {
+            stored(key, value, entry, item);
+            return true;
         } else {
-            cache.put(key, new ObjCacheItem(value, expiryTime));
+            return false;
         }
+    }
 
-        countAdded += 1;
+    /**
+     * Cache a value restored from the snapshot unless the key has been cached
+     * meanwhile.
+     * 
+     * @return the value now cached.
+     */
+    @SuppressWarnings("unchecked")
+    T restore(Object key, T value, long expiryTime) {
+        long now = CoarseClock.currentTimeMillis();
+        CacheEntry item = newEntry(key, value, now, expiryTime, null);
+        CacheEntry prev = cache.putIfAbsent(key, item);
+        if (prev != null) {
+            return (T) prev.get();
+        }
+        stored(key, value, item, null);
+        stats.recordAdded(1);
+        return value;
+    }
 
-        if (countAdded >= cleanCache) {
-            clean();
+    private CacheEntry newEntry(Object key, T value, long now, long expiryTime, String[] tags) {
+        if (softRefs || weakRefs) {
+            return new CacheEntry(key, value, now, expiryTime, idleTime, tags, weakRefs, refQueue);
+        } else {
+            return new CacheEntry(value, now, expiryTime, idleTime, tags);
         }
     }
 
+    /**
+     * Bookkeeping after the item replaced prev, which may be null.
+     */
+    private void stored(Object key, T value, CacheEntry item, CacheEntry prev) {
+        if (prev != null && prev.tags != null) {
+            untag(key, prev);
+        }
+        if (snapshot != null) {
+            discardSnapshot(key);
+        }
+        if (item.expiryTime() > 0) {
+            scheduleExpiry(key, item, item.expiryTime());
+        } else if (prev != null) {
+            cancelExpiry(key, prev);
+        }
+        onWrite(key, value, item);
+    }
+
+    /**
+     * Calculate the expiry time of an entry written now with the TTL, applying
+     * the expiry policy and then the jitter.
+     */
+    private long expiryTime(Object key, T value, long now, long ttl) {
+        if (expiry != null) {
+            ttl = expiry.expireAfterWrite(key, value, ttl);
+        }
+        if (ttl == -1) {
+            return -1;
+        }
+        if (ttlJitter > 0) {
+            ttl -= (long) (ttl * ttlJitter * ThreadLocalRandom.current().nextDouble() / 100);
+        }
+        return now + ttl;
+    }
+
     public T get(Object key) {
-        CacheItem item = cache.get(key);
+        return lookup(key, refreshLoader);
+    }
+
+    /**
+     * Get the live value for the key. The loader is used to refresh a stale
+     * hit.
+     */
+    private T lookup(Object key, Function<Object, ? extends T> loader) {
+        drainReferenceQueue();
+
+        T it = find(key, loader, CoarseClock.currentTimeMillis());
+        if (it != null) {
+            stats.recordHits(1);
+        } else {
+            stats.recordMisses(1);
+        }
+        return it;
+    }
+
+    /**
+     * Get the values for the keys with one timestamp, recording the hits and
+     * misses once.
+     */
+    @Override
+    public Map<Object, T> getAll(Collection<?> keys) {
+        drainReferenceQueue();
+
+        Map<Object, T> result = AntLib.newHashMap(keys.size());
+        long now = CoarseClock.currentTimeMillis();
+        int misses = 0;
+
+        for (Object key : keys) {
+            T it = find(key, refreshLoader, now);
+            if (it != null) {
+                result.put(key, it);
+            } else {
+                misses++;
+            }
+        }
+
+        stats.recordHits(keys.size() - misses);
+        stats.recordMisses(misses);
+        return result;
+    }
+
+    /**
+     * Find the live value for the key without counting the hit or miss.
+     */
+    private T find(Object key, Function<Object, ? extends T> loader, long now) {
+        CacheEntry item = cache.get(key);
 
         if (item == null) {
-            // Never cached.
+            // Never cached, unless in the snapshot being restored.
             //
+            CacheSnapshot<T> snapshot = this.snapshot;
+            if (snapshot != null) {
+                T it = snapshot.restore(key, this);
+                if (snapshot.isEmpty()) {
+                    this.snapshot = null;
+                }
+                return it;
+            }
             return null;
 
         } else {
@@ -157,44 +553,657 @@ public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
             //
             if (it == null) {
                 log.debug("Evicted {}", key);
-                remove(key); // Remove the entry and key from cache.
-                countEvictions++;
-                countMisses++;
+                if (removeItem(key, item)) { // Remove the entry and key from
+                                             // cache.
+                    stats.recordEviction(RemovalCause.COLLECTED);
+                }
                 return null;
             }
 
             // Has the item expired?
             //
-            if (item.checkExpired()) {
+            if (item.isExpired(now)) {
                 log.debug("Expired {}", key);
-                remove(key); // Remove the entry and key from the cache.
-                countExpires++;
-                countMisses++;
+                if (removeItem(key, item)) { // Remove the entry and key from
+                                             // the cache.
+                    stats.recordEviction(RemovalCause.EXPIRED);
+                }
+                expireEntries(now);
                 return null;
             }
 
             // Hit.
             //
-            countHits++;
+            item.touch(now);
+            onRead(key, item);
+
+            if (refreshAfter > 0 && loader != null) {
+                refreshIfStale(key, item, it, loader, now);
+            }
             return it;
         }
     }
 
+    public T get(Object key, Function<Object, ? extends T> loader) {
+        T value = lookup(key, loader);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inflight = loads.putIfAbsent(key, load);
+        if (inflight != null) {
+            return join(inflight);
+        }
+
+        try {
+            // A load may have completed between the miss and registering ours.
+            //
+            value = peek(key);
+            if (value == null) {
+                value = load(key, loader);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+            load.complete(value);
+            return value;
+
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * The value is put in the cache by the thread completing the loader's
+     * future. Each caller gets its own future dependent on the shared load, so
+     * completing or cancelling it does not affect the other callers.
+     */
+    public CompletableFuture<T> getAsync(Object key,
+            Function<Object, ? extends CompletableFuture<? extends T>> loader) {
+        T value = lookup(key, refreshLoader);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inflight = loads.putIfAbsent(key, load);
+        if (inflight != null) {
+            return inflight.thenApply(Function.identity());
+        }
+
+        // A load may have completed between the miss and registering ours.
+        //
+        value = peek(key);
+        if (value != null) {
+            loads.remove(key, load);
+            load.complete(value);
+            return CompletableFuture.completedFuture(value);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<? extends T> future;
+        try {
+            future = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            stats.recordLoad(System.nanoTime() - start, false);
+            loads.remove(key, load);
+            load.completeExceptionally(e);
+            return load.thenApply(Function.identity());
+        }
+
+        future.whenComplete((it, e) -> {
+            stats.recordLoad(System.nanoTime() - start, e == null);
+            Throwable failure = (e instanceof CompletionException) ? e.getCause() : e;
+
+            // Cache the value before forgetting the load, so that a concurrent
+            // get finds one or the other.
+            //
+            if (failure == null && it != null) {
+                try {
+                    put(key, it);
+                } catch (RuntimeException | Error ex) {
+                    failure = ex;
+                }
+            }
+            loads.remove(key, load);
+
+            if (failure == null) {
+                load.complete(it);
+            } else {
+                load.completeExceptionally(failure);
+            }
+        });
+        return load.thenApply(Function.identity());
+    }
+
+    public ICache<T> synchronous() {
+        return this;
+    }
+
+    public Map<Object, T> getAll(Collection<?> keys, Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        Map<Object, T> result = getAll(keys);
+        Map<Object, CompletableFuture<T>> ours = null;
+        Map<Object, CompletableFuture<T>> theirs = null;
+
+        for (Object key : keys) {
+            if (result.containsKey(key)) {
+                continue;
+            }
+
+            CompletableFuture<T> load = new CompletableFuture<>();
+            CompletableFuture<T> inflight = loads.putIfAbsent(key, load);
+            if (inflight != null) {
+                if (theirs == null) {
+                    theirs = AntLib.newHashMap();
+                }
+                theirs.put(key, inflight);
+            } else {
+                if (ours == null) {
+                    ours = AntLib.newHashMap();
+                }
+                ours.put(key, load);
+            }
+        }
+
+        if (ours != null) {
+            try {
+                Map<Object, T> loaded = load(Collections.unmodifiableSet(ours.keySet()), bulkLoader);
+                for (Map.Entry<Object, CompletableFuture<T>> e : ours.entrySet()) {
+                    T value = loaded == null ? null : loaded.get(e.getKey());
+                    if (value != null) {
+                        put(e.getKey(), value);
+                        result.put(e.getKey(), value);
+                    }
+                    e.getValue().complete(value);
+                }
+
+            } catch (RuntimeException | Error e) {
+                for (CompletableFuture<T> load : ours.values()) {
+                    load.completeExceptionally(e);
+                }
+                throw e;
+
+            } finally {
+                for (Map.Entry<Object, CompletableFuture<T>> e : ours.entrySet()) {
+                    loads.remove(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        if (theirs != null) {
+            for (Map.Entry<Object, CompletableFuture<T>> e : theirs.entrySet()) {
+                T value = join(e.getValue());
+                if (value != null) {
+                    result.put(e.getKey(), value);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Call the loader, recording the time taken.
+     */
+    private <K, V> V load(K key, Function<K, ? extends V> loader) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = loader.apply(key);
+            success = true;
+            return value;
+        } finally {
+            stats.recordLoad(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Start a background reload of the item if it is older than the refresh
+     * interval and no load of the key is in progress.
+     */
+    private void refreshIfStale(Object key, CacheEntry item, T current, Function<Object, ? extends T> loader,
+            long now) {
+        long writeTime = item.writeTime;
+        if (writeTime <= 0 || now - writeTime < refreshAfter || loads.containsKey(key)) {
+            return;
+        }
+
+        CompletableFuture<T> load = new CompletableFuture<>();
+        if (loads.putIfAbsent(key, load) == null) {
+            try {
+                refreshExecutor.execute(() -> refresh(key, item, loader, load));
+            } catch (RejectedExecutionException e) {
+                log.debug("Refresh rejected {}", key);
+                loads.remove(key, load);
+                load.complete(current);
+            }
+        }
+    }
+
+    private void refresh(Object key, CacheEntry item, Function<Object, ? extends T> loader, CompletableFuture<T> load) {
+        try {
+            T value = load(key, loader);
+
+            // Only replace the item if it has not been replaced or removed
+            // while loading.
+            //
+            if (value == null) {
+                removeItem(key, item);
+            } else {
+                long now = CoarseClock.currentTimeMillis();
+                if (replace(key, item, value, now)) {
+                    stats.recordAdded(1);
+                }
+                drainReferenceQueue();
+                expireEntries(now);
+            }
+            load.complete(value);
+
+        } catch (RuntimeException | Error e) {
+            log.warn(Msgs.format("Refresh failed {} {}", cacheName, key), e);
+            load.completeExceptionally(e);
+
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Wait for a load in progress on another thread, rethrowing its failure.
+     */
+    private static <T> T join(CompletableFuture<T> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Get a live value without counting a hit or miss.
+     */
+    @SuppressWarnings("unchecked")
+    private T peek(Object key) {
+        CacheEntry item = cache.get(key);
+        if (item == null || item.isExpired(CoarseClock.currentTimeMillis())) {
+            return null;
+        } else {
+            return (T) item.get();
+        }
+    }
+
     public void remove(Object key) {
-        cache.remove(key);
+        if (snapshot != null) {
+            discardSnapshot(key);
+        }
+        CacheEntry item = cache.remove(key);
+        if (item != null) {
+            itemRemoved(key, item);
+            expireEntries(CoarseClock.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Remove the entries, cancelling their expiry timers in one pass.
+     */
+    @Override
+    public void removeAll(Collection<?> keys) {
+        Object[] removedKeys = new Object[keys.size()];
+        CacheEntry[] removed = new CacheEntry[keys.size()];
+        int count = 0;
+
+        for (Object key : keys) {
+            if (snapshot != null) {
+                discardSnapshot(key);
+            }
+            CacheEntry item = cache.remove(key);
+            if (item != null) {
+                removedKeys[count] = key;
+                removed[count++] = item;
+                if (item.expiryTime() > 0) {
+                    cancelExpiry(key, item);
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            untag(removedKeys[i], removed[i]);
+            onRemoved(removedKeys[i], removed[i]);
+        }
+        expireEntries(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * Remove the entries tagged with the tag or a tag below it. The index
+     * entries are taken under the tag lock and the entries removed after it
+     * is released.
+     */
+    @Override
+    public void invalidateTag(String tag) {
+        Set<Object> keys = AntLib.newHashSet();
+
+        tagLock.lock();
+        try {
+            Set<Object> tagged = tagIndex.remove(tag);
+            if (tagged != null) {
+                keys.addAll(tagged);
+            }
+
+            // The tags below it sort between "tag/" and "tag0".
+            //
+            Map<String, Set<Object>> below = tagIndex.subMap(tag + '/', tag + '0');
+            for (Set<Object> it : below.values()) {
+                keys.addAll(it);
+            }
+            below.clear();
+        } finally {
+            tagLock.unlock();
+        }
+
+        if (keys.isEmpty() == false) {
+            removeAll(keys);
+        }
+    }
+
+    /**
+     * Add the key to the index of each tag.
+     */
+    private void tag(Object key, String[] tags) {
+        tagLock.lock();
+        try {
+            for (String tag : tags) {
+                Set<Object> keys = tagIndex.get(tag);
+                if (keys == null) {
+                    keys = AntLib.newHashSet();
+                    tagIndex.put(tag, keys);
+                }
+                keys.add(key);
+            }
+        } finally {
+            tagLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the key from the index of each tag of the removed item, unless
+     * the item now cached under the key has the tag too.
+     */
+    private void untag(Object key, CacheItem item) {
+        String[] tags = ((CacheEntry) item).tags;
+        if (tags == null) {
+            return;
+        }
+        tagLock.lock();
+        try {
+            CacheEntry current = cache.get(key);
+            for (String tag : tags) {
+                Set<Object> keys = tagIndex.get(tag);
+                if (keys != null && (current == null || current.hasTag(tag) == false)) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        tagIndex.remove(tag);
+                    }
+                }
+            }
+        } finally {
+            tagLock.unlock();
+        }
     }
 
     public void clearCache() {
-        this.countAdded = 0;
-        this.countHits = 0;
-        this.countMisses = 0;
-        this.countExpires = 0;
-        this.countEvictions = 0;
+        this.stats.reset();
+        this.snapshot = null;
         cache.clear();
+
+        tagLock.lock();
+        try {
+            tagIndex.clear();
+        } finally {
+            tagLock.unlock();
+        }
+
+        // Queued timers of items put since the clear are still applied.
+        //
+        cleanLock.lock();
+        try {
+            timerWheel.clear();
+            drainTimerEvents();
+        } finally {
+            cleanLock.unlock();
+        }
+        onCleared();
+    }
+
+    /**
+     * Write the live entries, and those of the snapshot not yet restored, to
+     * the snapshot file.
+     * 
+     * @return the number of entries written.
+     */
+    public int writeSnapshot() throws IOException {
+        Validate.stateIsTrue(snapshotFile != null, "Cache {} has no snapshot file", cacheName);
+        int count = CacheSnapshot.write(cache, snapshot, snapshotFile, codec);
+        log.debug("Snapshot {} entries={}", cacheName, count);
+        return count;
+    }
+
+    private void openSnapshot() {
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            try {
+                CacheSnapshot<T> it = CacheSnapshot.open(snapshotFile, codec);
+                if (it.isEmpty() == false) {
+                    this.snapshot = it;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn(Msgs.format("Snapshot not restored {}", cacheName), e);
+            }
+        }
+    }
+
+    private void discardSnapshot(Object key) {
+        CacheSnapshot<T> snapshot = this.snapshot;
+        if (snapshot != null) {
+            snapshot.discard(key);
+            if (snapshot.isEmpty()) {
+                this.snapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Remove expired entries. Called by the background cleanup task if
+     * configured, but may be called at any time.
+     */
+    public void cleanUp() {
+        nextExpiry = 0;
+        drainReferenceQueue();
+        expireEntries(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * Remove the entry only if it is still mapped to the given item. A
+     * concurrent put may have replaced it in the meantime.
+     */
+    final boolean removeItem(Object key, CacheItem item) {
+        if (cache.remove(key, item)) {
+            itemRemoved(key, item);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Remove an entry chosen for eviction by the size policy. The policy has
+     * already forgotten the entry so {@link #onRemoved} is not called.
+     */
+    final boolean evictItem(Object key, CacheItem item) {
+        if (cache.remove(key, item)) {
+            if (item.expiryTime() > 0) {
+                cancelExpiry(key, item);
+            }
+            untag(key, item);
+            stats.recordEviction(RemovalCause.SIZE);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void itemRemoved(Object key, CacheItem item) {
+        if (item.expiryTime() > 0) {
+            cancelExpiry(key, item);
+        }
+        untag(key, item);
+        onRemoved(key, item);
+    }
+
+    /**
+     * A timer to schedule or cancel, queued until the wheel is next locked.
+     */
+    private static final class TimerEvent {
+        final Object key;
+        final CacheItem item;
+        final long expiryTime;
+
+        /**
+         * @param expiryTime
+         *            The time to schedule at, or 0 to cancel.
+         */
+        TimerEvent(Object key, CacheItem item, long expiryTime) {
+            this.key = key;
+            this.item = item;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private void scheduleExpiry(Object key, CacheItem item, long expiryTime) {
+        timerEvents.add(new TimerEvent(key, item, expiryTime));
+    }
+
+    private void cancelExpiry(Object key, CacheItem item) {
+        timerEvents.add(new TimerEvent(key, item, 0));
+    }
+
+    /**
+     * Apply the queued timers to the wheel. Called with the clean lock held.
+     * Events of different threads may be queued out of order, so an item is
+     * only scheduled if it is still the one cached. A cancel queued before the
+     * schedule of the same item finds it removed and the schedule is skipped.
+     */
+    private void drainTimerEvents() {
+        TimerEvent e;
+        while ((e = timerEvents.poll()) != null) {
+            if (e.expiryTime == 0) {
+                timerWheel.cancel(e.key, e.item);
+            } else if (cache.get(e.key) == e.item) {
+                timerWheel.schedule(e.key, e.item, e.expiryTime);
+            }
+        }
+        countTimers = timerWheel.size();
+    }
+
+    /**
+     * Apply the queued timers and advance the timer wheel if it is due,
+     * unless another thread is already doing so.
+     */
+    private void expireEntries(long now) {
+        boolean due = countTimers > 0 && now >= nextExpiry;
+        if ((due || timerEvents.isEmpty() == false) && cleanLock.tryLock()) {
+            try {
+                drainTimerEvents();
+                if (countTimers > 0 && now >= nextExpiry) {
+                    nextExpiry = now + EXPIRY_INTERVAL;
+                    timerWheel.advance(now);
+                    countTimers = timerWheel.size();
+                }
+            } finally {
+                cleanLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove the entries of items cleared by the GC.
+     */
+    private void drainReferenceQueue() {
+        Reference<?> ref;
+        while ((ref = refQueue.poll()) != null) {
+            CacheEntry.Ref it = (CacheEntry.Ref) ref;
+            if (removeItem(it.key(), it.entry())) {
+                stats.recordEviction(RemovalCause.COLLECTED);
+            }
+        }
+    }
+
+    /**
+     * Timer wheel callback. Called with the clean lock held.
+     */
+    private boolean expireItem(Object key, CacheItem item) {
+        if (cache.get(key) != item) {
+            // Replaced or removed, and its cancel not yet applied.
+            //
+            return true;
+        }
+        if (item.checkExpired() == false) {
+            return false;
+        }
+        if (cache.remove(key, item)) {
+            log.debug("Expired {}", key);
+            untag(key, item);
+            onRemoved(key, item);
+            stats.recordEviction(RemovalCause.EXPIRED);
+        }
+        return true;
+    }
+
+    /**
+     * Called after an item has been stored in the cache.
+     */
+    void onWrite(Object key, T value, CacheItem item) {
+    }
+
+    /**
+     * True if the item is still the one stored for the key. A concurrent put
+     * or remove may have replaced it since it was stored.
+     */
+    final boolean isCurrent(Object key, CacheItem item) {
+        return cache.get(key) == item;
+    }
+
+    /**
+     * Called after a cache hit.
+     */
+    void onRead(Object key, CacheItem item) {
+    }
+
+    /**
+     * Called after an item has been removed from the cache, either explicitly,
+     * expired or reclaimed by the GC.
+     */
+    void onRemoved(Object key, CacheItem item) {
+    }
+
+    /**
+     * Called after the cache has been cleared.
+     */
+    void onCleared() {
     }
 
     public final Collection<CacheItem> getCachedObjects() {
-        return cache.values();
+        return Collections.unmodifiableCollection(cache.values());
     }
 
     public final int getSize() {
@@ -206,15 +1215,15 @@ public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
     }
 
     public final long getCountAdded() {
-        return countAdded;
+        return stats.getCountAdded();
     }
 
     public final long getCountHits() {
-        return countHits;
+        return stats.getCountHits();
     }
 
     public final long getCountMisses() {
-        return countMisses;
+        return stats.getCountMisses();
     }
 
     public final long getTtl() {
@@ -225,43 +1234,41 @@ public class SimpleMemCache<T> implements ICache<T>, SimpleMemCacheMBean {
         return softRefs;
     }
 
-    public final int getCountExpires() {
-        return countExpires;
+    public final boolean isWeakRefs() {
+        return weakRefs;
     }
 
-    public final int getCountEvictions() {
-        return countEvictions;
+    /**
+     * Maximum total weight of the entries, 0 if not bounded by weight.
+     */
+    public long getMaxWeight() {
+        return 0;
     }
 
     /**
-     * Clean the cache removing entries evicted from memory.
+     * Total weight of the entries, 0 if not bounded by weight.
      */
-    private void clean() {
-        if (cleanLock.tryLock()) {
-            try {
-                Iterator<Entry<Object, CacheItem>> iterator = cache.entrySet().iterator();
-
-                while (iterator.hasNext()) {
-                    CacheItem e = iterator.next().getValue();
-                    if (e != null) {
-                        if (e.get() == null) {
-                            iterator.remove(); // Remove the entry and key from
-                                               // the cache.
-                            countEvictions++;
-                        } else if (e.checkExpired()) {
-                            iterator.remove(); // Remove the entry and key from
-                                               // the cache.
-                            countExpires++;
-                            countEvictions++;
-                        }
-                    }
-                }
+    public long getWeightedSize() {
+        return 0;
+    }
 
-                cleanCache = (countAdded + CLEAN_CACHE_COUNT);
+    public final long getCountExpires() {
+        return stats.getCountEvictions(RemovalCause.EXPIRED);
+    }
 
-            } finally {
-                cleanLock.unlock();
-            }
-        }
+    public final long getCountEvictions() {
+        return stats.getCountEvictions();
+    }
+
+    public final double getHitRate() {
+        return stats.getHitRate();
+    }
+
+    public final double getAverageLoadTime() {
+        return stats.getAverageLoadTime() / 1000000.0;
+    }
+
+    public final CacheStats stats() {
+        return stats.snapshot();
     }
 }
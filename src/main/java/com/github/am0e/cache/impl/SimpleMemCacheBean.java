@@ -16,7 +16,15 @@
  *******************************************************************************/
 package com.github.am0e.cache.impl;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.cache.Expiry;
+import com.github.am0e.cache.Weigher;
 import com.github.am0e.utils.FrequencyInterval;
+import com.github.am0e.utils.Validate;
 
 /**
  * Cache bean for wiring up a cache in the beans configuration file
@@ -24,8 +32,24 @@ import com.github.am0e.utils.FrequencyInterval;
 public class SimpleMemCacheBean {
     private String cacheName;
     private boolean useSoftReferences = true;
+    private boolean useWeakReferences;
     private int concurrencyLevel = 10;
     private String ttl = "never";
+    private String cleanupInterval = "never";
+    private String refreshAfter = "never";
+    private Function<Object, ?> refreshLoader;
+    private Executor refreshExecutor = ForkJoinPool.commonPool();
+    private long offHeapCapacity;
+    private int slabSize = 4 * 1024 * 1024;
+    private CacheCodec<?> codec;
+    private String snapshotFile;
+    private long maxEntries;
+    private long maxWeight;
+    private Weigher<?> weigher;
+    private String maxMemory = "none";
+    private int ttlJitter;
+    private String expireAfterAccess = "never";
+    private Expiry<?> expiry;
 
     public SimpleMemCacheBean() {
     }
@@ -42,6 +66,18 @@ public class SimpleMemCacheBean {
         this.useSoftReferences = useSoftReferences;
     }
 
+    public final boolean isUseWeakReferences() {
+        return useWeakReferences;
+    }
+
+    /**
+     * Hold values by weak references, so they are dropped as soon as nothing
+     * else refers to them. Takes precedence over soft references.
+     */
+    public final void setUseWeakReferences(boolean useWeakReferences) {
+        this.useWeakReferences = useWeakReferences;
+    }
+
     public final String getCacheName() {
         return cacheName;
     }
@@ -62,6 +98,226 @@ public class SimpleMemCacheBean {
         return concurrencyLevel;
     }
 
+    /**
+     * Maximum number of entries. 0 means unbounded.
+     */
+    public final long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public final void setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Maximum total weight of the entries as calculated by the weigher. 0
+     * means unbounded.
+     */
+    public final long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public final void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public final Weigher<?> getWeigher() {
+        return weigher;
+    }
+
+    public final void setWeigher(Weigher<?> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * Maximum estimated heap held by the entries, such as <code>512M</code>,
+     * <code>512MB</code> or <code>1 GB</code>, with a K, M or G suffix or in
+     * bytes. The entries are weighed with a {@link SizeEstimator}, which reads
+     * the fields of the cached values. Defaults to none.
+     * 
+     * @throws IllegalArgumentException
+     *             if the expression is not a size.
+     */
+    public final void setMaxMemory(String expr) {
+        Validate.paramIsTrue(parseSize(expr) != 0, "Cache {} maxMemory {} not a size", cacheName, expr);
+        maxMemory = expr;
+    }
+
+    public long getMaxMemoryVal() {
+        return parseSize(maxMemory);
+    }
+
+    /**
+     * Parse a size in bytes with an optional K, M or G suffix, optionally
+     * followed by B. Returns -1 for none, 0 if not a size.
+     */
+    private static long parseSize(String expr) {
+        if (expr == null) {
+            return 0;
+        }
+        expr = expr.replace(" ", "").toUpperCase();
+        if (expr.equals("NONE")) {
+            return -1;
+        }
+        if (expr.endsWith("B")) {
+            expr = expr.substring(0, expr.length() - 1);
+        }
+        if (expr.isEmpty()) {
+            return 0;
+        }
+        char unit = expr.charAt(expr.length() - 1);
+        long multiplier = unit == 'K' ? 1L << 10 : unit == 'M' ? 1L << 20 : unit == 'G' ? 1L << 30 : 1;
+        if (multiplier != 1) {
+            expr = expr.substring(0, expr.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(expr);
+            return size > 0 && size <= Long.MAX_VALUE / multiplier ? size * multiplier : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Percentage of the TTL by which each entry's TTL is randomly shortened,
+     * so entries written together do not expire together. 0 means none.
+     */
+    public final int getTtlJitter() {
+        return ttlJitter;
+    }
+
+    public final void setTtlJitter(int ttlJitter) {
+        Validate.paramIsTrue(ttlJitter >= 0 && ttlJitter <= 100, "ttlJitter {} not a percentage", ttlJitter);
+        this.ttlJitter = ttlJitter;
+    }
+
+    /**
+     * Time after the last read or write after which an entry expires, as for
+     * the TTL. Defaults to never.
+     */
+    public final void setExpireAfterAccess(String expr) {
+        expireAfterAccess = expr;
+    }
+
+    public long getExpireAfterAccessVal() {
+        if (expireAfterAccess.equals("never")) {
+            return -1;
+        } else {
+            return FrequencyInterval.parse(expireAfterAccess).intervalAsMilliseconds();
+        }
+    }
+
+    /**
+     * Calculates the TTL of each entry written. Applied before the jitter.
+     */
+    public final Expiry<?> getExpiry() {
+        return expiry;
+    }
+
+    public final void setExpiry(Expiry<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Interval of the background task removing expired entries, as for the
+     * TTL. Defaults to never, when expired entries are removed by the threads
+     * using the cache.
+     */
+    public final void setCleanupInterval(String expr) {
+        cleanupInterval = expr;
+    }
+
+    public long getCleanupIntervalVal() {
+        if (cleanupInterval.equals("never")) {
+            return -1;
+        } else {
+            return FrequencyInterval.parse(cleanupInterval).intervalAsMilliseconds();
+        }
+    }
+
+    /**
+     * Age after which a hit reloads the item in the background, as for the
+     * TTL. Should be less than the TTL. Defaults to never.
+     */
+    public final void setRefreshAfter(String expr) {
+        refreshAfter = expr;
+    }
+
+    public long getRefreshAfterVal() {
+        if (refreshAfter.equals("never")) {
+            return -1;
+        } else {
+            return FrequencyInterval.parse(refreshAfter).intervalAsMilliseconds();
+        }
+    }
+
+    /**
+     * Loader used to refresh items read without a loader.
+     */
+    public final Function<Object, ?> getRefreshLoader() {
+        return refreshLoader;
+    }
+
+    public final void setRefreshLoader(Function<Object, ?> refreshLoader) {
+        this.refreshLoader = refreshLoader;
+    }
+
+    public final Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    public final void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Bytes of off heap memory for an {@link OffHeapCache}. 0 means the cache
+     * is held on the heap.
+     */
+    public final long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    public final void setOffHeapCapacity(long offHeapCapacity) {
+        this.offHeapCapacity = offHeapCapacity;
+    }
+
+    /**
+     * Size of each off heap slab in bytes. Also the largest value that can be
+     * cached off heap. Defaults to 4MB.
+     */
+    public final int getSlabSize() {
+        return slabSize;
+    }
+
+    public final void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Codec for caches that store values serialized. Defaults to java
+     * serialization.
+     */
+    public final CacheCodec<?> getCodec() {
+        return codec;
+    }
+
+    public final void setCodec(CacheCodec<?> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * File the cache is snapshot to and warmed from on restart. Defaults to
+     * none.
+     */
+    public final String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public final void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
     public long getTtlVal() {
         int ttl;
         if (this.ttl.equals("never")) {
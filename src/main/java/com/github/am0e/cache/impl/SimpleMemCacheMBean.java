@@ -17,11 +17,47 @@
 package com.github.am0e.cache.impl;
 
 public interface SimpleMemCacheMBean {
+    public String getCacheName();
+
+    public int getSize();
+
+    public long getTtl();
+
+    /**
+     * Maximum total weight of the entries, in bytes if bounded by memory. 0 if
+     * not bounded by weight.
+     */
+    public long getMaxWeight();
+
+    /**
+     * Total weight of the entries, in bytes if bounded by memory.
+     */
+    public long getWeightedSize();
+
     public long getCountAdded();
 
     public long getCountHits();
 
+    /**
+     * Number of lookups that found no live value, including keys that were
+     * never cached. Earlier versions only counted lookups of expired or
+     * collected entries.
+     */
     public long getCountMisses();
 
+    public long getCountExpires();
+
+    public long getCountEvictions();
+
+    /**
+     * Ratio of hits to requests since the cache was created or cleared.
+     */
+    public double getHitRate();
+
+    /**
+     * Average load time in milliseconds.
+     */
+    public double getAverageLoadTime();
+
     public void clearCache();
 }
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.am0e.cache.Weigher;
+import com.github.am0e.lib.AntLib;
+
+/**
+ * Estimates the heap retained by a cached value in bytes, for caches bounded by
+ * memory rather than entries.
+ * 
+ * The shallow size of an object is calculated from the instance fields of its
+ * class, assuming a 64 bit JVM with compressed references: a 12 byte header,
+ * 4 byte references, rounded up to 8 bytes. The objects it references are
+ * read from its reference fields by reflection, so no code of the value runs,
+ * and added to the size. Fields that cannot be made accessible, such as those
+ * of JDK classes, count only the reference. Strings, arrays, collections and
+ * maps are sized directly. Objects reachable more than once are counted once,
+ * and the graph is only followed to a limited depth, so the size is an
+ * estimate.
+ */
+public final class SizeEstimator implements Weigher<Object> {
+
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REF = 4;
+
+    /**
+     * Per entry overhead of the hash based collections and maps.
+     */
+    private static final int HASH_ENTRY = 32;
+
+    private static final class Layout {
+        final long shallowSize;
+        final Field[] references;
+
+        Layout(long shallowSize, Field[] references) {
+            this.shallowSize = shallowSize;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Layouts held by their classes, so a cached layout does not keep the
+     * class loader of a class alive.
+     */
+    private static final ClassValue<Layout> layouts = new ClassValue<Layout>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return createLayout(type);
+        }
+    };
+
+    private final int maxDepth;
+
+    public SizeEstimator() {
+        this(8);
+    }
+
+    /**
+     * @param maxDepth
+     *            Depth of the object graph below the value to follow.
+     */
+    public SizeEstimator(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * The estimated size of the key and value, up to Integer.MAX_VALUE.
+     */
+    @Override
+    public int weigh(Object key, Object value) {
+        IdentityHashMap<Object, Object> seen = new IdentityHashMap<>();
+        long size = estimate(key, seen, 0) + estimate(value, seen, 0);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * The estimated retained size of the value.
+     */
+    public long estimate(Object value) {
+        return estimate(value, new IdentityHashMap<>(), 0);
+    }
+
+    private long estimate(Object value, IdentityHashMap<Object, Object> seen, int depth) {
+        if (value == null || depth > maxDepth || seen.put(value, value) != null) {
+            return 0;
+        }
+
+        Class<?> claz = value.getClass();
+
+        if (value instanceof String) {
+            // Header, hash and value array fields, plus the array. Counts 2
+            // bytes a character although compact strings may use 1.
+            //
+            return align(HEADER + 4 + 4 + REF) + align(ARRAY_HEADER + 2L * ((String) value).length());
+
+        } else if (claz.isArray()) {
+            return estimateArray(value, claz.getComponentType(), seen, depth);
+
+        } else if (value instanceof Collection) {
+            Collection<?> c = (Collection<?>) value;
+            long size = layout(claz).shallowSize + align(ARRAY_HEADER + (long) REF * c.size());
+            if (value instanceof List == false) {
+                size += (long) HASH_ENTRY * c.size();
+            }
+            for (Object it : c) {
+                size += estimate(it, seen, depth + 1);
+            }
+            return size;
+
+        } else if (value instanceof Map) {
+            Map<?, ?> m = (Map<?, ?>) value;
+            long size = layout(claz).shallowSize + align(ARRAY_HEADER + (long) REF * m.size())
+                    + (long) HASH_ENTRY * m.size();
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                size += estimate(e.getKey(), seen, depth + 1);
+                size += estimate(e.getValue(), seen, depth + 1);
+            }
+            return size;
+
+        } else if (value instanceof Enum || value instanceof Class) {
+            // Shared, not retained by the value.
+            //
+            return 0;
+
+        } else {
+            Layout layout = layout(claz);
+            long size = layout.shallowSize;
+            for (Field f : layout.references) {
+                try {
+                    size += estimate(f.get(value), seen, depth + 1);
+                } catch (IllegalAccessException e) {
+                    // Not readable, count only the reference.
+                }
+            }
+            return size;
+        }
+    }
+
+    private long estimateArray(Object array, Class<?> type, IdentityHashMap<Object, Object> seen, int depth) {
+        if (type.isPrimitive()) {
+            return align(ARRAY_HEADER + (long) primitiveSize(type) * Array.getLength(array));
+        }
+        Object[] elements = (Object[]) array;
+        long size = align(ARRAY_HEADER + (long) REF * elements.length);
+        for (Object it : elements) {
+            size += estimate(it, seen, depth + 1);
+        }
+        return size;
+    }
+
+    private static Layout layout(Class<?> claz) {
+        return layouts.get(claz);
+    }
+
+    /**
+     * Sum the instance fields of the class and its super classes, and find
+     * the accessible fields holding references.
+     */
+    private static Layout createLayout(Class<?> claz) {
+        long size = HEADER;
+        List<Field> references = AntLib.newList();
+
+        for (Class<?> c = claz; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) == false) {
+                    if (f.getType().isPrimitive()) {
+                        size += primitiveSize(f.getType());
+                    } else {
+                        size += REF;
+                        if (accessible(f)) {
+                            references.add(f);
+                        }
+                    }
+                }
+            }
+        }
+
+        return new Layout(align(size), references.toArray(new Field[0]));
+    }
+
+    private static boolean accessible(Field f) {
+        if (f.getDeclaringClass().getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            f.setAccessible(true);
+            return true;
+        } catch (RuntimeException e) {
+            // Not opened to us by its module.
+            return false;
+        }
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
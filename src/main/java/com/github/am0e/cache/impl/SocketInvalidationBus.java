@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.msgs.Msgs;
+
+/**
+ * Bus sending invalidations as UDP datagrams to peer processes on the loopback
+ * interface, for testing invalidation between JVMs on one machine.
+ * Invalidations are also delivered to the listeners in this JVM.
+ * 
+ * String, long and integer keys and tags are sent as such. Keys of other types
+ * are encoded with the key codec, by default java serialization. The bus only
+ * listens on the loopback interface, so only local processes can make it
+ * decode a key. Without a key codec, or if a key or tag cannot be encoded or
+ * does not fit in a datagram, the invalidation is sent as an invalidation of
+ * the whole cache. Datagrams may be lost, so near caches should also bound
+ * their time to live.
+ */
+public class SocketInvalidationBus extends LoopbackInvalidationBus implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SocketInvalidationBus.class);
+
+    private static final int MAX_DATAGRAM = 65507;
+
+    private static final byte ALL = 0;
+    private static final byte STRING_KEY = 1;
+    private static final byte LONG_KEY = 2;
+    private static final byte INT_KEY = 3;
+    private static final byte TAG = 4;
+    private static final byte OBJECT_KEY = 5;
+
+    private final CacheCodec<Object> keyCodec;
+    private final DatagramChannel channel;
+    private final InetSocketAddress[] peers;
+    private final Thread receiver;
+
+    /**
+     * Listen on the loopback port and send to the peer ports, encoding keys of
+     * other types with java serialization.
+     */
+    public SocketInvalidationBus(int port, int... peerPorts) throws IOException {
+        this(new SerializingCodec<>(), port, peerPorts);
+    }
+
+    /**
+     * Listen on the loopback port and send to the peer ports.
+     * 
+     * @param keyCodec
+     *            codec for keys other than strings, longs and integers, or
+     *            null to send their invalidations as invalidations of the whole
+     *            cache.
+     */
+    public SocketInvalidationBus(CacheCodec<Object> keyCodec, int port, int... peerPorts) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.keyCodec = keyCodec;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(loopback, port));
+        this.peers = new InetSocketAddress[peerPorts.length];
+        for (int i = 0; i < peerPorts.length; i++) {
+            peers[i] = new InetSocketAddress(loopback, peerPorts[i]);
+        }
+        this.receiver = new Thread(this::receive, "SocketInvalidationBus-" + port);
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    /**
+     * Port the bus is listening on.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * The message is encoded before the invalidation is delivered, so a key
+     * that cannot be sent does not fail after a partial invalidation.
+     */
+    @Override
+    public void publish(String source, String cacheName, Object key) {
+        byte type;
+        if (key == null) {
+            type = ALL;
+        } else if (key instanceof String) {
+            type = STRING_KEY;
+        } else if (key instanceof Long) {
+            type = LONG_KEY;
+        } else if (key instanceof Integer) {
+            type = INT_KEY;
+        } else {
+            type = keyCodec != null ? OBJECT_KEY : ALL;
+        }
+
+        ByteBuffer msg = encode(source, cacheName, type, key);
+        deliver(source, cacheName, key);
+        send(msg);
+    }
+
+    @Override
+    public void publishTag(String source, String cacheName, String tag) {
+        ByteBuffer msg = encode(source, cacheName, TAG, tag);
+        deliverTag(source, cacheName, tag);
+        send(msg);
+    }
+
+    /**
+     * Encode the message, or the invalidation of the whole cache if it cannot
+     * be.
+     */
+    private ByteBuffer encode(String source, String cacheName, byte type, Object value) {
+        if (type != ALL) {
+            try {
+                return message(source, cacheName, type, value);
+            } catch (IOException | RuntimeException e) {
+                log.warn(Msgs.format("Invalidating all of {}, invalidation of {} not sent", cacheName,
+                        value.getClass().getName()), e);
+            }
+        }
+        try {
+            return message(source, cacheName, ALL, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ByteBuffer message(String source, String cacheName, byte type, Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeUTF(source);
+        out.writeUTF(cacheName);
+        out.writeByte(type);
+
+        switch (type) {
+        case STRING_KEY:
+        case TAG:
+            out.writeUTF((String) value);
+            break;
+        case LONG_KEY:
+            out.writeLong((Long) value);
+            break;
+        case INT_KEY:
+            out.writeInt((Integer) value);
+            break;
+        case OBJECT_KEY:
+            keyCodec.encode(value, out);
+            break;
+        default:
+            break;
+        }
+
+        out.flush();
+        if (bos.size() > MAX_DATAGRAM) {
+            throw new IOException("Invalidation too large " + bos.size());
+        }
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+    private void send(ByteBuffer msg) {
+        for (InetSocketAddress peer : peers) {
+            try {
+                channel.send(msg.duplicate(), peer);
+            } catch (IOException e) {
+                log.warn(Msgs.format("Invalidation not sent to {}", peer), e);
+            }
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM);
+
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                channel.receive(buf);
+                buf.flip();
+
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(buf.array(), buf.position(), buf.remaining()));
+                String source = in.readUTF();
+                String cacheName = in.readUTF();
+                Object key;
+                byte type = in.readByte();
+                switch (type) {
+                case ALL:
+                    key = null;
+                    break;
+                case STRING_KEY:
+                    key = in.readUTF();
+                    break;
+                case LONG_KEY:
+                    key = in.readLong();
+                    break;
+                case INT_KEY:
+                    key = in.readInt();
+                    break;
+                case TAG:
+                    deliverTag(source, cacheName, in.readUTF());
+                    continue;
+                case OBJECT_KEY:
+                    // Without a codec the key cannot be decoded, so clear.
+                    //
+                    key = keyCodec != null ? keyCodec.decode(in) : null;
+                    break;
+                default:
+                    throw new IOException("Unknown key type " + type);
+                }
+                deliver(source, cacheName, key);
+
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Invalidation not received", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
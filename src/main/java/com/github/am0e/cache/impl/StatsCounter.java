@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.RemovalCause;
+
+/**
+ * Cache statistics. Uses striped {@link LongAdder} counters so that threads on
+ * different cores do not contend on the same cache line when recording. Public
+ * for caches outside this package.
+ */
+public final class StatsCounter {
+
+    private final LongAdder countAdded = new LongAdder();
+    private final LongAdder countHits = new LongAdder();
+    private final LongAdder countMisses = new LongAdder();
+    private final LongAdder countLoads = new LongAdder();
+    private final LongAdder countLoadFailures = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder[] countEvictions;
+    private final LongAdder[] loadTimes;
+
+    public StatsCounter() {
+        countEvictions = new LongAdder[RemovalCause.values().length];
+        for (int i = 0; i < countEvictions.length; i++) {
+            countEvictions[i] = new LongAdder();
+        }
+        loadTimes = new LongAdder[CacheStats.LOAD_TIME_BUCKETS];
+        for (int i = 0; i < loadTimes.length; i++) {
+            loadTimes[i] = new LongAdder();
+        }
+    }
+
+    public void recordAdded(int count) {
+        countAdded.add(count);
+    }
+
+    public void recordHits(int count) {
+        countHits.add(count);
+    }
+
+    public void recordMisses(int count) {
+        countMisses.add(count);
+    }
+
+    public void recordEviction(RemovalCause cause) {
+        countEvictions[cause.ordinal()].increment();
+    }
+
+    public void recordEvictions(RemovalCause cause, int count) {
+        countEvictions[cause.ordinal()].add(count);
+    }
+
+    /**
+     * Record a load taking the given nanoseconds.
+     */
+    public void recordLoad(long time, boolean success) {
+        if (success) {
+            countLoads.increment();
+        } else {
+            countLoadFailures.increment();
+        }
+        totalLoadTime.add(time);
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(time);
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        loadTimes[Math.min(bucket, loadTimes.length - 1)].increment();
+    }
+
+    public long getCountAdded() {
+        return countAdded.sum();
+    }
+
+    public long getCountHits() {
+        return countHits.sum();
+    }
+
+    public long getCountMisses() {
+        return countMisses.sum();
+    }
+
+    public long getCountEvictions(RemovalCause cause) {
+        return countEvictions[cause.ordinal()].sum();
+    }
+
+    public long getCountEvictions() {
+        long sum = 0;
+        for (LongAdder it : countEvictions) {
+            sum += it.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Ratio of hits to requests, 1.0 if there have been no requests.
+     */
+    public double getHitRate() {
+        long hits = countHits.sum();
+        long requests = hits + countMisses.sum();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    /**
+     * Average load time in nanoseconds.
+     */
+    public double getAverageLoadTime() {
+        long loads = countLoads.sum() + countLoadFailures.sum();
+        return loads == 0 ? 0.0 : (double) totalLoadTime.sum() / loads;
+    }
+
+    public CacheStats snapshot() {
+        long[] evictions = new long[countEvictions.length];
+        for (int i = 0; i < evictions.length; i++) {
+            evictions[i] = countEvictions[i].sum();
+        }
+        long[] times = new long[loadTimes.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = loadTimes[i].sum();
+        }
+        return new CacheStats(countAdded.sum(), countHits.sum(), countMisses.sum(), countLoads.sum(),
+                countLoadFailures.sum(), totalLoadTime.sum(), evictions, times);
+    }
+
+    public void reset() {
+        countAdded.reset();
+        countHits.reset();
+        countMisses.reset();
+        countLoads.reset();
+        countLoadFailures.reset();
+        totalLoadTime.reset();
+        for (LongAdder it : countEvictions) {
+            it.reset();
+        }
+        for (LongAdder it : loadTimes) {
+            it.reset();
+        }
+    }
+}
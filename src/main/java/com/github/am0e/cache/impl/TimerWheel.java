@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.cache.impl;
+
+import java.util.HashMap;
+
+/**
+ * Hierarchical timing wheel for expiring cache entries in amortized O(1) time.
+ * 
+ * Each level is a ring of buckets, each bucket a doubly linked list of timers.
+ * The lowest level has buckets of about a second, the next of about a minute,
+ * then an hour and a day, with a final level holding everything further out.
+ * Advancing the wheel only visits the buckets whose time span has elapsed.
+ * Timers in a higher level bucket are cascaded down into a finer level when
+ * their bucket is visited and they are not due yet.
+ * 
+ * Each key has at most one timer. Scheduling a key again replaces its timer.
+ * 
+ * Not thread safe. Callers must serialize access.
+ */
+final class TimerWheel {
+
+    /**
+     * Callback for timers that are due.
+     */
+    interface Expirer {
+        /**
+         * Expire the item. Return false if the item is not expired yet and
+         * should be rescheduled at its expiry time, which may have moved.
+         */
+        boolean expire(Object key, CacheItem item);
+    }
+
+    static final class Timer {
+        final Object key;
+        final CacheItem item;
+        long time;
+        Timer prev;
+        Timer next;
+
+        Timer(Object key, CacheItem item, long time) {
+            this.key = key;
+            this.item = item;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Log2 of the span of a bucket at each level in ms. About 1s, 1m, 1h, 18h
+     * and 6d.
+     */
+    private static final int[] SHIFT = { 10, 16, 22, 26, 29 };
+
+    /**
+     * Number of buckets at each level. A level covers one bucket of the level
+     * above it.
+     */
+    private static final int[] BUCKETS = { 64, 64, 16, 8, 1 };
+
+    private final Timer[][] wheel;
+    private final HashMap<Object, Timer> timers;
+    private final Expirer expirer;
+    private long time;
+
+    TimerWheel(Expirer expirer, long now) {
+        this.expirer = expirer;
+        this.timers = new HashMap<>();
+        this.wheel = new Timer[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Timer[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                wheel[i][j] = sentinel();
+            }
+        }
+        this.time = now;
+    }
+
+    int size() {
+        return timers.size();
+    }
+
+    /**
+     * Schedule the item to expire at the given time, replacing any timer for
+     * the same key.
+     */
+    void schedule(Object key, CacheItem item, long expiryTime) {
+        Timer timer = new Timer(key, item, expiryTime);
+        Timer prev = timers.put(key, timer);
+        if (prev != null) {
+            unlink(prev);
+        }
+        link(timer);
+    }
+
+    /**
+     * Cancel the timer for the key if it belongs to the given item.
+     */
+    void cancel(Object key, CacheItem item) {
+        Timer timer = timers.get(key);
+        if (timer != null && timer.item == item) {
+            timers.remove(key);
+            unlink(timer);
+        }
+    }
+
+    /**
+     * Advance the wheel to the given time and expire the timers that are due.
+     */
+    void advance(long now) {
+        long prevTime = time;
+        if (now <= prevTime) {
+            return;
+        }
+        time = now;
+
+        for (int i = 0; i < SHIFT.length; i++) {
+            long prevTicks = prevTime >>> SHIFT[i];
+            long delta = (now >>> SHIFT[i]) - prevTicks;
+            if (delta <= 0) {
+                break;
+            }
+            expire(i, prevTicks, delta);
+        }
+    }
+
+    void clear() {
+        timers.clear();
+        for (Timer[] buckets : wheel) {
+            for (Timer sentinel : buckets) {
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+        }
+    }
+
+    private void expire(int level, long prevTicks, long delta) {
+        Timer[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (prevTicks & mask);
+
+        for (int i = start; i < start + steps; i++) {
+            // Detach the bucket then expire or cascade each timer.
+            //
+            Timer sentinel = buckets[i & mask];
+            Timer timer = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+
+            while (timer != sentinel) {
+                Timer next = timer.next;
+                timer.prev = null;
+                timer.next = null;
+
+                if (timer.time > time) {
+                    link(timer);
+                } else if (expirer.expire(timer.key, timer.item) == false) {
+                    timer.time = timer.item.expiryTime();
+                    link(timer);
+                } else if (timers.get(timer.key) == timer) {
+                    timers.remove(timer.key);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    private void link(Timer timer) {
+        Timer sentinel = findBucket(Math.max(timer.time, time));
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.next != null) {
+            timer.prev.next = timer.next;
+            timer.next.prev = timer.prev;
+            timer.prev = null;
+            timer.next = null;
+        }
+    }
+
+    private Timer findBucket(long expiryTime) {
+        long duration = expiryTime - time;
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < (1L << SHIFT[i + 1])) {
+                long ticks = expiryTime >>> SHIFT[i];
+                return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static Timer sentinel() {
+        Timer sentinel = new Timer(null, null, 0);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        return sentinel;
+    }
+}
@@ -19,52 +19,126 @@ package com.github.am0e.cache.impl;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
+import com.github.am0e.cache.CacheCodec;
+import com.github.am0e.lib.AntLib;
+
+/**
+ * Cache holding serialized copies of the values on the heap, so callers cannot
+ * modify the cached values. See {@link OffHeapCache} to hold them off the heap.
+ */
 public class WrappedMemCache<T> extends SimpleMemCache<T> {
 
+    private final CacheCodec<T> codec;
+
+    @SuppressWarnings("unchecked")
     WrappedMemCache(SimpleMemCacheBean def) {
         super(def);
+        this.codec = def.getCodec() != null ? (CacheCodec<T>) def.getCodec() : new SerializingCodec<>();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public T get(Object key) {
-        T v = super.get(key);
+        return decode(super.get(key));
+    }
+
+    @Override
+    public Map<Object, T> getAll(Collection<?> keys) {
+        Map<Object, T> result = super.getAll(keys);
+        result.replaceAll((key, v) -> decode(v));
+        return result;
+    }
+
+    /**
+     * Loads are not single flight as the loaded value must be encoded before
+     * it is cached.
+     */
+    @Override
+    public T get(Object key, Function<Object, ? extends T> loader) {
+        T v = get(key);
+        if (v == null) {
+            v = loader.apply(key);
+            if (v != null) {
+                put(key, v);
+            }
+        }
+        return v;
+    }
 
+    /**
+     * Loads are not single flight, as for {@link #get(Object, Function)}.
+     */
+    @Override
+    public CompletableFuture<T> getAsync(Object key,
+            Function<Object, ? extends CompletableFuture<? extends T>> loader) {
+        T v = get(key);
         if (v != null) {
+            return CompletableFuture.completedFuture(v);
+        }
+        return loader.apply(key).thenApply(it -> {
+            if (it != null) {
+                put(key, it);
+            }
+            return it;
+        });
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl) {
+        super.put(key, encode(value), ttl);
+    }
+
+    @Override
+    public void put(Object key, T value, long ttl, String... tags) {
+        super.put(key, encode(value), ttl, tags);
+    }
+
+    /**
+     * Encodes values reloaded by the refresh loader.
+     */
+    @Override
+    boolean replace(Object key, CacheEntry item, T value, long now) {
+        return super.replace(key, item, encode(value), now);
+    }
+
+    @Override
+    public void putAll(Map<?, ? extends T> entries, long ttl) {
+        Map<Object, T> encoded = AntLib.newHashMap(entries.size());
+        for (Map.Entry<?, ? extends T> e : entries.entrySet()) {
+            encoded.put(e.getKey(), encode(e.getValue()));
+        }
+        super.putAll(encoded, ttl);
+    }
+
+    private T decode(T value) {
+        if (value != null) {
             try {
-                ByteArrayInputStream bis = new ByteArrayInputStream((byte[]) v);
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                v = (T) ois.readObject();
-                ois.close();
+                value = codec.decode(new ByteArrayInputStream((byte[]) value));
 
-            } catch (Exception e) {
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-
-        return v;
+        return value;
     }
 
     @SuppressWarnings("unchecked")
-    @Override
-    public void put(Object key, T value, long ttl) {
+    private T encode(T value) {
         if (value != null) {
             try {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                oos.writeObject(key);
-                oos.flush();
-                oos.close();
+                codec.encode(value, bos);
                 value = (T) bos.toByteArray();
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-        super.put(key, value, ttl);
+        return value;
     }
 
 }
@@ -67,11 +67,29 @@ public final class ClassCache {
         //
         CacheKey it = new CacheKey(cl, className);
 
-        Class<?> claz = cache.get(it);
-        if (claz == null) {
-            claz = cl.loadClass(className);
-            cache.put(it, claz);
+        // Load on a miss. Concurrent misses share the one load.
+        //
+        try {
+            return cache.get(it, k -> {
+                try {
+                    return cl.loadClass(className);
+                } catch (ClassNotFoundException e) {
+                    throw new NotFound(e);
+                }
+            });
+        } catch (NotFound e) {
+            throw (ClassNotFoundException) e.getCause();
+        }
+    }
+
+    /**
+     * Carries the loader's exception out of the cache loader function.
+     */
+    private static final class NotFound extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotFound(ClassNotFoundException cause) {
+            super(null, cause, false, false);
         }
-        return claz;
     }
 }
@@ -18,6 +18,7 @@ package com.github.am0e.jbeans;
 
 import java.lang.annotation.Annotation;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -148,6 +149,46 @@ public final class FieldInfo implements BaseInfo {
         }
     }
 
+    /**
+     * Returns a handle reading the field through the public getter or the
+     * public field, as {@link #callGetter(Object)} does, or null if the
+     * public lookup cannot access it.
+     */
+    public MethodHandle getGetterHandle() {
+        try {
+            if (getter != null) {
+                return MethodHandles.publicLookup().unreflect(getter.method);
+            }
+            if (Modifier.isPublic(field.getModifiers())) {
+                return MethodHandles.publicLookup().unreflectGetter(field);
+            }
+            return null;
+
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle setting the field through the public setter or the
+     * public field, as {@link #callSetter(Object, Object)} does but without
+     * converting the value, or null if the public lookup cannot access it.
+     */
+    public MethodHandle getSetterHandle() {
+        try {
+            if (setter != null) {
+                return MethodHandles.publicLookup().unreflect(setter.method);
+            }
+            if (Modifier.isPublic(field.getModifiers())) {
+                return MethodHandles.publicLookup().unreflectSetter(field);
+            }
+            return null;
+
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
     public final void callSetter(Object bean, Object value) throws BeanException {
 
         value = BeanUtils.cast(value, field.getType());
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import com.github.am0e.jbeans.BeanInfo;
+import com.github.am0e.jbeans.BeanUtils;
+import com.github.am0e.jbeans.FieldInfo;
+
+/**
+ * The fields of a bean class compiled once into a hash table from json
+ * property name to a setter handle. Fields declared as int, long, double or
+ * boolean get a typed setter so {@link JsonObjectReader} can store values
+ * parsed from the parser events without boxing or string conversion.
+ * 
+ * As with {@link BeanInfo#getPublicField(CharSequence)}, a field hides any
+ * field of the same name in a super class.
+ */
+final class CompiledBeanReader {
+
+    static final int OBJECT = 0;
+    static final int INT = 1;
+    static final int LONG = 2;
+    static final int DOUBLE = 3;
+    static final int BOOLEAN = 4;
+
+    private static final MethodType OBJECT_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final MethodHandle CALL_SETTER;
+
+    static {
+        try {
+            CALL_SETTER = MethodHandles.lookup().findVirtual(FieldInfo.class, "callSetter", OBJECT_SETTER);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<CompiledBeanReader> readers = new ClassValue<CompiledBeanReader>() {
+        @Override
+        protected CompiledBeanReader computeValue(Class<?> type) {
+            return new CompiledBeanReader(type);
+        }
+    };
+
+    /**
+     * Open addressed table, at most half full.
+     */
+    private final Setter[] table;
+    private final int mask;
+
+    private CompiledBeanReader(Class<?> type) {
+        int count = 0;
+        for (BeanInfo it = BeanInfo.forClass(type); it != null; it = it.getSuperBeanInfo()) {
+            count += it.getDeclaredPublicFields().length;
+        }
+
+        int size = 4;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        this.table = new Setter[size];
+        this.mask = size - 1;
+
+        for (BeanInfo it = BeanInfo.forClass(type); it != null; it = it.getSuperBeanInfo()) {
+            for (FieldInfo fld : it.getDeclaredPublicFields()) {
+                if (get(fld.getName()) == null) {
+                    add(compile(fld));
+                }
+            }
+        }
+    }
+
+    static CompiledBeanReader forClass(Class<?> type) {
+        return readers.get(type);
+    }
+
+    /**
+     * Get the setter for the property, or null if the bean has no such field.
+     */
+    Setter get(String name) {
+        int hash = name.hashCode();
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Setter s = table[i];
+            if (s == null) {
+                return null;
+            }
+            if (s.name == name || (s.hash == hash && s.name.equals(name))) {
+                return s;
+            }
+        }
+    }
+
+    private void add(Setter s) {
+        int i = s.hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = s;
+    }
+
+    private static Setter compile(FieldInfo fld) {
+        MethodHandle h = fld.getSetterHandle();
+
+        if (h == null) {
+            // Not accessible to the public lookup. Let callSetter() report it
+            // or set it reflectively.
+            //
+            return new Setter(fld, OBJECT, Object.class, CALL_SETTER.bindTo(fld));
+        }
+
+        Class<?> type = h.type().parameterType(1);
+        int kind;
+
+        if (type == int.class) {
+            kind = INT;
+        } else if (type == long.class) {
+            kind = LONG;
+        } else if (type == double.class) {
+            kind = DOUBLE;
+        } else if (type == boolean.class) {
+            kind = BOOLEAN;
+        } else {
+            kind = OBJECT;
+        }
+        return new Setter(fld, kind, type, h);
+    }
+
+    static final class Setter {
+        final String name;
+        final int hash;
+        final FieldInfo field;
+
+        /**
+         * One of {@link CompiledBeanReader#OBJECT}, {@link #INT}...
+         */
+        final int kind;
+
+        /**
+         * The type the setter takes, values are cast to it.
+         */
+        final Class<?> type;
+
+        /**
+         * The setter taking the value as an object, and taking it as the
+         * primitive type if there is one.
+         */
+        final MethodHandle generic;
+        final MethodHandle handle;
+
+        Setter(FieldInfo field, int kind, Class<?> type, MethodHandle h) {
+            this.name = JsonSymbols.intern(field.getName());
+            this.hash = name.hashCode();
+            this.field = field;
+            this.kind = kind;
+            this.type = type;
+            this.generic = h.asType(OBJECT_SETTER);
+            this.handle = kind == OBJECT ? generic : h.asType(MethodType.methodType(void.class, Object.class, type));
+        }
+
+        void set(Object bean, Object value) {
+            try {
+                generic.invokeExact(bean, BeanUtils.cast(value, type));
+            } catch (Throwable e) {
+                throw BeanUtils.wrapError(e);
+            }
+        }
+
+        void setInt(Object bean, int value) {
+            try {
+                handle.invokeExact(bean, value);
+            } catch (Throwable e) {
+                throw BeanUtils.wrapError(e);
+            }
+        }
+
+        void setLong(Object bean, long value) {
+            try {
+                handle.invokeExact(bean, value);
+            } catch (Throwable e) {
+                throw BeanUtils.wrapError(e);
+            }
+        }
+
+        void setDouble(Object bean, double value) {
+            try {
+                handle.invokeExact(bean, value);
+            } catch (Throwable e) {
+                throw BeanUtils.wrapError(e);
+            }
+        }
+
+        void setBoolean(Object bean, boolean value) {
+            try {
+                handle.invokeExact(bean, value);
+            } catch (Throwable e) {
+                throw BeanUtils.wrapError(e);
+            }
+        }
+    }
+}
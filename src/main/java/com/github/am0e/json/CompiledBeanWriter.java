@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.am0e.jbeans.BeanInfo;
+import com.github.am0e.jbeans.BeanUtils;
+import com.github.am0e.jbeans.FieldInfo;
+
+/**
+ * The fields of a bean class compiled once into an ordered list of write
+ * steps. Each step reads its field through a method handle and writes it with
+ * the generator call for the field's declared type, so only fields declared
+ * as objects go through {@link JsonObjectWriter#genValue(String, Object)}.
+ * 
+ * Fields are written in the order {@link JsonObjectWriter} always used: the
+ * class's own fields, then those of each super class.
+ */
+final class CompiledBeanWriter {
+
+    private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodHandle CALL_GETTER;
+
+    static {
+        try {
+            CALL_GETTER = MethodHandles.lookup().findVirtual(FieldInfo.class, "callGetter", OBJECT_GETTER);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<CompiledBeanWriter> writers = new ClassValue<CompiledBeanWriter>() {
+        @Override
+        protected CompiledBeanWriter computeValue(Class<?> type) {
+            return new CompiledBeanWriter(type);
+        }
+    };
+
+    private final Step[] steps;
+
+    private CompiledBeanWriter(Class<?> type) {
+        List<Step> list = new ArrayList<>();
+
+        for (BeanInfo beanInfo = BeanInfo.forClass(type); beanInfo != null; beanInfo = beanInfo.getSuperBeanInfo()) {
+            for (FieldInfo mf : beanInfo.getDeclaredPublicFields()) {
+                if (mf.isReadable() && !mf.isTransient()) {
+                    list.add(compile(mf));
+                }
+            }
+        }
+        this.steps = list.toArray(new Step[list.size()]);
+    }
+
+    static CompiledBeanWriter forClass(Class<?> type) {
+        return writers.get(type);
+    }
+
+    /**
+     * Write the fields of the bean.
+     */
+    void write(JsonObjectWriter jw, Object bean) throws IOException {
+        try {
+            for (Step step : steps) {
+                step.write(jw, bean);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw BeanUtils.wrapError(e);
+        }
+    }
+
+    private static Step compile(FieldInfo mf) {
+        String name = JsonSymbols.intern(mf.getName());
+        MethodHandle h = mf.getGetterHandle();
+
+        if (h == null) {
+            // Not accessible to the public lookup, read it reflectively.
+            //
+            return new ObjectStep(name, CALL_GETTER.bindTo(mf));
+        }
+
+        Class<?> type = h.type().returnType();
+
+        if (type == int.class) {
+            return new IntStep(name, h.asType(MethodType.methodType(int.class, Object.class)));
+        } else if (type == long.class || type == short.class || type == byte.class) {
+            return new LongStep(name, h.asType(MethodType.methodType(long.class, Object.class)));
+        } else if (type == double.class || type == float.class) {
+            return new DoubleStep(name, h.asType(MethodType.methodType(double.class, Object.class)));
+        } else if (type == boolean.class) {
+            return new BooleanStep(name, h.asType(MethodType.methodType(boolean.class, Object.class)));
+        } else if (type == String.class) {
+            return new StringStep(name, h.asType(MethodType.methodType(String.class, Object.class)));
+        } else {
+            return new ObjectStep(name, h.asType(OBJECT_GETTER));
+        }
+    }
+
+    private static abstract class Step {
+        final String name;
+
+        /**
+         * The name quoted, escaped and UTF-8 encoded once for the byte
+         * generator.
+         */
+        final byte[] encodedName;
+        final MethodHandle getter;
+
+        Step(String name, MethodHandle getter) {
+            this.name = name;
+            this.encodedName = Utf8JsonGenerator.encodeName(name);
+            this.getter = getter;
+        }
+
+        abstract void write(JsonObjectWriter jw, Object bean) throws Throwable;
+    }
+
+    private static final class IntStep extends Step {
+        IntStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            int v = (int) getter.invokeExact(bean);
+            if (!jw.excluded(name)) {
+                if (jw.utf8 != null) {
+                    jw.utf8.write(encodedName, v);
+                } else {
+                    jw.gen.write(name, v);
+                }
+            }
+        }
+    }
+
+    private static final class LongStep extends Step {
+        LongStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            long v = (long) getter.invokeExact(bean);
+            if (!jw.excluded(name)) {
+                if (jw.utf8 != null) {
+                    jw.utf8.write(encodedName, v);
+                } else {
+                    jw.gen.write(name, v);
+                }
+            }
+        }
+    }
+
+    private static final class DoubleStep extends Step {
+        DoubleStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            double v = (double) getter.invokeExact(bean);
+            if (!jw.excluded(name)) {
+                if (jw.utf8 != null) {
+                    jw.utf8.write(encodedName, v);
+                } else {
+                    jw.gen.write(name, v);
+                }
+            }
+        }
+    }
+
+    private static final class BooleanStep extends Step {
+        BooleanStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            boolean v = (boolean) getter.invokeExact(bean);
+            if (!jw.excluded(name)) {
+                if (jw.utf8 != null) {
+                    jw.utf8.write(encodedName, v);
+                } else {
+                    jw.gen.write(name, v);
+                }
+            }
+        }
+    }
+
+    private static final class StringStep extends Step {
+        StringStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            String v = (String) getter.invokeExact(bean);
+            if (v != null && !jw.excluded(name)) {
+                if (jw.utf8 != null) {
+                    jw.utf8.write(encodedName, v);
+                } else {
+                    jw.gen.write(name, v);
+                }
+            }
+        }
+    }
+
+    private static final class ObjectStep extends Step {
+        ObjectStep(String name, MethodHandle getter) {
+            super(name, getter);
+        }
+
+        @Override
+        void write(JsonObjectWriter jw, Object bean) throws Throwable {
+            Object v = (Object) getter.invokeExact(bean);
+            if (v != null) {
+                jw.genValue(name, v);
+            }
+        }
+    }
+}
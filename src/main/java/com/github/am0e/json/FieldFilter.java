@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The only, except and include field paths of a {@link JsonObjectWriter}
+ * compiled into a trie of path segments. The writer keeps the node for each
+ * object it is in, so deciding on a field is one child lookup.
+ * 
+ * Paths below the filter context path are looked up in the trie. Fields
+ * outside it are always included.
+ */
+final class FieldFilter {
+
+    static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * The path of this node is in the only, except or include set.
+         */
+        private boolean only;
+        private boolean except;
+        private boolean include;
+
+        /**
+         * The node is on the context path, short of its end, or outside it.
+         * Its fields do not take part in filtering.
+         */
+        private final boolean outside;
+
+        private Node(boolean outside) {
+            this.outside = outside;
+        }
+    }
+
+    /**
+     * Paths not in the trie, within and outside the context path.
+     */
+    private static final Node ABSENT = new Node(false);
+    private static final Node OUTSIDE = new Node(true);
+
+    private final Node root;
+    private final boolean hasOnly;
+
+    /**
+     * @param contextPath
+     *            The dotted path of the object the filter paths start from,
+     *            eg "data.", or null.
+     */
+    FieldFilter(Set<String> only, Set<String> except, Set<String> include, String contextPath) {
+        Node start;
+
+        if (contextPath == null || contextPath.isEmpty()) {
+            start = root = new Node(false);
+        } else {
+            String[] segs = contextPath.split("\\.");
+            root = new Node(true);
+            start = root;
+            for (int i = 0; i < segs.length; i++) {
+                Node n = new Node(i < segs.length - 1);
+                start.children.put(segs[i], n);
+                start = n;
+            }
+        }
+
+        if (only != null) {
+            for (String path : only) {
+                add(start, path).only = true;
+            }
+        }
+        if (except != null) {
+            for (String path : except) {
+                add(start, path).except = true;
+            }
+        }
+        if (include != null) {
+            for (String path : include) {
+                add(start, path).include = true;
+            }
+        }
+        this.hasOnly = only != null;
+    }
+
+    private static Node add(Node n, String path) {
+        for (String seg : path.split("\\.")) {
+            Node child = n.children.get(seg);
+            if (child == null) {
+                child = new Node(false);
+                n.children.put(seg, child);
+            }
+            n = child;
+        }
+        return n;
+    }
+
+    Node root() {
+        return root;
+    }
+
+    /**
+     * The node for the named object in the object at the node.
+     */
+    Node descend(Node n, String name) {
+        Node child = n.children.get(name);
+        if (child != null) {
+            return child;
+        }
+        return n.outside ? OUTSIDE : ABSENT;
+    }
+
+    boolean includeField(Node n, String fn) {
+        if (n.outside) {
+            return true;
+        }
+        Node child = n.children.get(fn);
+        if (child != null && child.except) {
+            return false;
+        }
+        if (hasOnly) {
+            return child != null && child.only;
+        }
+        return true;
+    }
+
+    boolean includeRelation(Node n, String fn) {
+        if (n.outside) {
+            return true;
+        }
+        Node child = n.children.get(fn);
+        return child != null && child.include;
+    }
+}
@@ -16,35 +16,34 @@
  *******************************************************************************/
 package com.github.am0e.json;
 
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.json.Json;
-import javax.json.stream.JsonParser;
 import javax.json.stream.JsonParser.Event;
 
-import com.github.am0e.jbeans.BeanInfo;
 import com.github.am0e.jbeans.BeanUtils;
 import com.github.am0e.jbeans.FieldInfo;
 import com.github.am0e.lib.AntLib;
 
 /**
  * Simple object serializer to unserialize a java object from a json stream.
- * Uses javax.json
+ * Uses {@link JsonTokenizer}
  * 
  * @author anthony
  *
  */
 public class JsonObjectReader {
     private ClassLoader classLoader;
-    private JsonParser parser;
+    private JsonTokenizer parser;
     private Event ev;
     private IdentityHashMap<Class<? extends Object>, InstanceCreator<? extends Object>> instanceCreators;
     private String typeFld = JsonObjectWriter.TYPE_FLD;
@@ -83,17 +82,33 @@ public class JsonObjectReader {
     }
 
     public Map<String, Object> readMap(Reader r, Class<?> itemType) {
-        start(r);
+        start(new JsonTokenizer(r));
         return readMap(itemType);
     }
 
     public <T> T readObject(Reader r, Class<T> type) {
-        start(r);
+        start(new JsonTokenizer(r));
         return readObject(type);
     }
 
-    private void start(Reader r) {
-        this.parser = Json.createParser(r);
+    /**
+     * Read the object from UTF-8 json.
+     */
+    public <T> T readObject(InputStream in, Class<T> type) {
+        start(new JsonTokenizer(in));
+        return readObject(type);
+    }
+
+    /**
+     * Read the object from the UTF-8 json remaining in the buffer.
+     */
+    public <T> T readObject(ByteBuffer buf, Class<T> type) {
+        start(new JsonTokenizer(buf));
+        return readObject(type);
+    }
+
+    private void start(JsonTokenizer parser) {
+        this.parser = parser;
         this.ev = null;
         next();
     }
@@ -113,7 +128,7 @@ public class JsonObjectReader {
 
         next();
         while (ev != Event.END_OBJECT) {
-            String name = parser.getString();
+            String name = parser.getKeyName();
             next();
             Object o = readObject(itemType, null);
             map.put(name, o);
@@ -219,7 +234,7 @@ public class JsonObjectReader {
 
     @SuppressWarnings("unchecked")
     private <T> T readObject(Class<T> type) {
-        BeanInfo beanInfo = null;
+        CompiledBeanReader beanReader = null;
 
         // Create an instanceof claz.
         //
@@ -231,7 +246,7 @@ public class JsonObjectReader {
         next();
 
         while (ev != Event.END_OBJECT) {
-            String name = parser.getString();
+            String name = parser.getKeyName();
             next();
 
             // Special processing for _type_
@@ -246,7 +261,7 @@ public class JsonObjectReader {
             }
 
             if (object == null) {
-                beanInfo = BeanInfo.forClass(type);
+                beanReader = CompiledBeanReader.forClass(type);
 
                 if (instanceCreators != null) {
                     ctor = (InstanceCreator<T>) instanceCreators.get(type);
@@ -263,12 +278,11 @@ public class JsonObjectReader {
 
             // Get the field from the bean.
             //
-            FieldInfo fld = beanInfo.getPublicField(name);
+            CompiledBeanReader.Setter fld = beanReader.get(name);
             if (fld == null) {
                 readObject((Class<?>) null, (Class<?>) null);
             } else {
-                Object value = readObject(fld.getType(), fld.getActualType());
-                fld.callSetter(object, value);
+                readField(object, fld);
             }
         }
 
@@ -281,6 +295,52 @@ public class JsonObjectReader {
         return object;
     }
 
+    /**
+     * Read the value and set the field. Numbers and booleans for primitive
+     * fields are set straight from the parser.
+     */
+    private void readField(Object object, CompiledBeanReader.Setter fld) {
+        switch (fld.kind) {
+        case CompiledBeanReader.INT:
+            if (ev == Event.VALUE_NUMBER && parser.isLong()) {
+                long v = parser.getLong();
+                if (v == (int) v) {
+                    fld.setInt(object, (int) v);
+                    next();
+                    return;
+                }
+            }
+            break;
+
+        case CompiledBeanReader.LONG:
+            if (ev == Event.VALUE_NUMBER && parser.isLong()) {
+                fld.setLong(object, parser.getLong());
+                next();
+                return;
+            }
+            break;
+
+        case CompiledBeanReader.DOUBLE:
+            if (ev == Event.VALUE_NUMBER) {
+                fld.setDouble(object, parser.getDouble());
+                next();
+                return;
+            }
+            break;
+
+        case CompiledBeanReader.BOOLEAN:
+            if (ev == Event.VALUE_TRUE || ev == Event.VALUE_FALSE) {
+                fld.setBoolean(object, ev == Event.VALUE_TRUE);
+                next();
+                return;
+            }
+            break;
+        }
+
+        FieldInfo info = fld.field;
+        fld.set(object, readObject(info.getType(), info.getActualType()));
+    }
+
     protected Class<?> loadClass(String clazName) {
         return BeanUtils.loadClass(classLoader, clazName);
     }
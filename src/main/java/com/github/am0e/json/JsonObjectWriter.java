@@ -17,10 +17,12 @@
 package com.github.am0e.json;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -33,25 +35,26 @@ import javax.json.JsonException;
 import javax.json.stream.JsonGenerator;
 
 import com.github.am0e.functions.CustomSerializer;
-import com.github.am0e.jbeans.BeanInfo;
-import com.github.am0e.jbeans.FieldInfo;
 import com.github.am0e.lib.AntLib;
 
-import gnu.trove.stack.array.TIntArrayStack;
-
 /**
- * Simple object serializer to a json stream. Uses javax.json
+ * Simple object serializer to a json stream. Uses javax.json for character
+ * streams and {@link Utf8JsonGenerator} for byte output.
  * 
  * @author anthony
  *
  */
 public class JsonObjectWriter {
-    private JsonGenerator gen;
+    JsonGenerator gen;
+
+    /**
+     * The generator when writing bytes, which takes pre-encoded names.
+     */
+    Utf8JsonGenerator utf8;
     private boolean includeMetaType;
     private String typeFieldName = TYPE_FLD;
     private String target = "";
     private String _name;
-    private StringBuilder namePath = new StringBuilder();
     private String filterContextPath = null;
     private boolean includePackageName = false;
     public final static String TYPE_FLD = "_jt$";
@@ -60,8 +63,15 @@ public class JsonObjectWriter {
     private Set<String> except;
     private IdentityHashMap<String, ObjectWriter<Object>> objectWriters;
     private IdentityHashMap<Class<?>, String> typeNames = new IdentityHashMap<>();
-    protected final TIntArrayStack stack = new TIntArrayStack();
     private boolean filtering;
+
+    /**
+     * The compiled filter, and its node for each object being written. Depth
+     * 0 is outside the top level object.
+     */
+    private FieldFilter filter;
+    private FieldFilter.Node[] path = new FieldFilter.Node[16];
+    private int depth;
     private int topLevel = 1;
 
     public JsonObjectWriter() {
@@ -110,6 +120,7 @@ public class JsonObjectWriter {
             list.add(fld);
         }
         this.filtering = true;
+        this.filter = null;
     }
 
     /**
@@ -151,59 +162,32 @@ public class JsonObjectWriter {
     }
 
     public boolean includeField(String fn) {
-        String key = getIncludeKey(fn);
-
-        if (key == null) {
+        if (filtering == false)
             return true;
-        }
-        if (this.except != null && this.except.contains(key)) {
-            return false;
-        }
-        if (this.only != null) {
-            return this.only.contains(key);
-        }
-        return true;
-    }
-
-    public boolean includeRelation(String fn) {
-        String key = getIncludeKey(fn);
 
-        if (key == null) {
-            return true;
-        }
-        if (this.include != null && this.include.contains(key)) {
-            return true;
-        }
-        return false;
+        return filter().includeField(path[depth], fn);
     }
 
-    private String getIncludeKey(String fn) {
+    public boolean includeRelation(String fn) {
         if (filtering == false)
-            return null;
-
-        int len = namePath.length();
+            return true;
 
-        namePath.append(fn);
-        String key = namePath.toString();
-        namePath.setLength(len);
+        return filter().includeRelation(path[depth], fn);
+    }
 
-        if (filterContextPath != null) {
-            if (key.startsWith(filterContextPath)) {
-                // Remove context path from key.
-                // Eg: "data.tracks.title" becomes "tracks.title"
-                //
-                key = key.substring(filterContextPath.length());
-            } else {
-                // Not in the context path. These fields do not participate in
-                // the exclusion/inclusion rules.
-                // Eg. This will typically be system related data like status
-                // codes or navigational links.
-                //
-                return null;
-            }
+    /**
+     * Get the filter, compiling it from the field paths when first used.
+     * Fields outside the filter context path do not participate in the
+     * exclusion/inclusion rules. Eg. This will typically be system related
+     * data like status codes or navigational links.
+     */
+    private FieldFilter filter() {
+        if (filter == null) {
+            filter = new FieldFilter(only, except, include, filterContextPath);
+            path[0] = filter.root();
+            depth = 0;
         }
-
-        return key;
+        return filter;
     }
 
     /**
@@ -244,10 +228,17 @@ public class JsonObjectWriter {
     }
 
     public JsonGenerator start(Writer w) {
-        gen = Json.createGenerator(w);
-        namePath.setLength(0);
-        stack.clear();
-        return this.gen;
+        return start(Json.createGenerator(w));
+    }
+
+    private JsonGenerator start(JsonGenerator gen) {
+        this.gen = gen;
+        this.utf8 = gen instanceof Utf8JsonGenerator ? (Utf8JsonGenerator) gen : null;
+        if (filtering) {
+            path[0] = filter().root();
+        }
+        depth = 0;
+        return gen;
     }
 
     public void flush() {
@@ -265,10 +256,53 @@ public class JsonObjectWriter {
         }
     }
 
+    /**
+     * Write the object as UTF-8 to the stream, without creating the document
+     * as characters first. The stream is flushed but not closed.
+     */
+    public void write(OutputStream out, Object obj) {
+        write(Utf8JsonGenerator.acquire(out), obj);
+    }
+
+    /**
+     * Write the object as UTF-8 into the buffer.
+     * 
+     * @throws java.nio.BufferOverflowException
+     *             if the document does not fit.
+     */
+    public void write(ByteBuffer out, Object obj) {
+        write(Utf8JsonGenerator.acquire(out), obj);
+    }
+
+    private void write(Utf8JsonGenerator g, Object obj) {
+        try {
+            start(g);
+            genValue(null, obj);
+            g.flush();
+
+        } catch (IOException e) {
+            throw new JsonException(null, e);
+        } finally {
+            g.release();
+            gen = null;
+            utf8 = null;
+        }
+    }
+
     public String write(Object obj) {
-        StringWriter sw = new StringWriter();
-        write(sw, obj);
-        return sw.toString();
+        Utf8JsonGenerator g = Utf8JsonGenerator.acquire();
+        try {
+            start(g);
+            genValue(null, obj);
+            return g.toUtf8String();
+
+        } catch (IOException e) {
+            throw new JsonException(null, e);
+        } finally {
+            g.release();
+            gen = null;
+            utf8 = null;
+        }
     }
 
     public void genValue(Object v) throws IOException {
@@ -283,7 +317,7 @@ public class JsonObjectWriter {
         // ' not working for nested'
         // http://127.0.0.1:8080/ws/tracks?fields=title,tags.artists
 
-        if (name != null && !includeField(name) && stack.size() > 1)
+        if (name != null && excluded(name))
             return;
 
         if (v instanceof Double) {
@@ -327,6 +361,13 @@ public class JsonObjectWriter {
         }
     }
 
+    /**
+     * True if the field is filtered out at the current nesting level.
+     */
+    boolean excluded(String name) {
+        return filtering && depth > 1 && !filter().includeField(path[depth], name);
+    }
+
     public void startArray() {
         if (_name == null) {
             gen.writeStartArray();
@@ -354,26 +395,25 @@ public class JsonObjectWriter {
 
     private void pushField() {
         if (filtering) {
-            if (_name == null) {
-                stack.push(-1);
-            } else {
-                stack.push(namePath.length());
-                if (stack.size() > topLevel) {
-                    namePath.append(_name);
-                    namePath.append(".");
-                }
+            FieldFilter.Node node = path[depth++];
+
+            // Unnamed objects, such as array items, and the top level fields
+            // do not add to the field path.
+            //
+            if (_name != null && depth > topLevel) {
+                node = filter().descend(node, _name);
+            }
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
             }
+            path[depth] = node;
         }
         _name = null;
     }
 
     private void popField() {
         if (filtering) {
-            int v = stack.pop();
-            if (v >= 0) {
-                this.namePath.setLength(v);
-                System.out.println("pop " + this.namePath);
-            }
+            depth--;
         }
     }
 
@@ -516,28 +556,9 @@ public class JsonObjectWriter {
 
         genTypeField(v);
 
-        BeanInfo beanInfo = BeanInfo.forClass(v.getClass());
-
-        while (beanInfo != null) {
-
-            // Process each acccessible field in this class.
-            //
-            for (FieldInfo mf : beanInfo.getDeclaredPublicFields()) {
-                if (mf.isReadable() && !mf.isTransient()) {
-                    // Get the field value.
-                    //
-                    Object fv = mf.callGetter(v);
-
-                    if (fv != null) {
-                        genValue(mf.getName(), fv);
-                    }
-                }
-            }
-
-            // Do the super class members.
-            //
-            beanInfo = beanInfo.getSuperBeanInfo();
-        }
+        // Write each accessible field using the compiled plan for the class.
+        //
+        CompiledBeanWriter.forClass(v.getClass()).write(this, v);
     }
 
     /**
@@ -587,7 +608,12 @@ public class JsonObjectWriter {
         }
     }
 
+    /**
+     * Set the dotted path of the object the filter field paths start from,
+     * eg "data.".
+     */
     public void setFilterContextPath(String path) {
         this.filterContextPath = path;
+        this.filter = null;
     }
 }
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+/**
+ * Bounded table of canonical property name strings, so that the keys read
+ * into maps and beans are shared instead of created per occurrence.
+ * 
+ * The table is direct mapped by hash code, a name displaces any other name in
+ * its slot. Slots are written without locking, which is safe as strings are
+ * immutable: a racing reader either sees the new string or looks it up again.
+ */
+final class JsonSymbols {
+
+    private static final int SIZE = 4096;
+    private static final int MAX_LENGTH = 64;
+
+    private static final String[] table = new String[SIZE];
+
+    private JsonSymbols() {
+    }
+
+    /**
+     * Get the canonical string for the characters, without creating one if
+     * it is in the table.
+     */
+    static String lookup(char[] buf, int off, int len) {
+        int hash = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            hash = 31 * hash + buf[i];
+        }
+
+        int slot = spread(hash);
+        String s = table[slot];
+
+        if (s != null && s.hashCode() == hash && matches(s, buf, off, len)) {
+            return s;
+        }
+
+        s = new String(buf, off, len);
+        if (len <= MAX_LENGTH) {
+            table[slot] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Make the name the canonical string for its characters. Used for the
+     * bean field names so that keys read are the field names themselves.
+     */
+    static String intern(String name) {
+        if (name.length() <= MAX_LENGTH) {
+            int slot = spread(name.hashCode());
+            String s = table[slot];
+            if (name.equals(s)) {
+                return s;
+            }
+            table[slot] = name;
+        }
+        return name;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & (SIZE - 1);
+    }
+
+    private static boolean matches(String s, char[] buf, int off, int len) {
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != buf[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
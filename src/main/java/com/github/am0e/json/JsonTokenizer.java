@@ -0,0 +1,760 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import javax.json.JsonException;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * Pull json parser working directly over UTF-8 bytes or characters.
+ * 
+ * Strings in a character buffer without escapes are returned as a slice of
+ * the buffer by {@link #getCharSequence()}, other strings are decoded into a
+ * reused buffer. No strings are created unless {@link #getString()} is
+ * called. Numbers are parsed as they are read, see {@link #getLong()} and
+ * {@link #getDouble()}.
+ * 
+ * Locations only report the stream offset.
+ */
+public final class JsonTokenizer implements JsonParser {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    /**
+     * Powers of ten that are exact doubles.
+     */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        double p = 1;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = p;
+            p *= 10;
+        }
+    }
+
+    /**
+     * Input, either characters or bytes.
+     */
+    private char[] cb;
+    private byte[] bb;
+    private int pos;
+    private int limit;
+
+    /**
+     * Stream offset of buffer index 0.
+     */
+    private long base;
+    private Reader reader;
+    private InputStream in;
+    private ByteBuffer src;
+
+    private Event event;
+    private boolean[] objects = new boolean[16];
+    private int depth;
+    private boolean needComma;
+    private boolean keyRead;
+
+    /**
+     * The current string or number: a slice of the input or of the scratch
+     * buffer.
+     */
+    private char[] tok;
+    private int tokOff;
+    private int tokLen;
+    private char[] sbuf = new char[64];
+    private int slen;
+    private final Slice slice = new Slice();
+
+    private long num;
+    private boolean integral;
+    private boolean overflow;
+
+    /**
+     * Decimal digits of the current number without the point, or -1 if they
+     * do not fit in a double exactly, and the power of ten they scale by.
+     */
+    private long mantissa;
+    private int exp10;
+    private boolean negative;
+
+    public JsonTokenizer(char[] buf, int off, int len) {
+        this.cb = buf;
+        this.pos = off;
+        this.limit = off + len;
+        this.base = -off;
+    }
+
+    public JsonTokenizer(byte[] buf, int off, int len) {
+        this.bb = buf;
+        this.pos = off;
+        this.limit = off + len;
+        this.base = -off;
+    }
+
+    /**
+     * Parse the remaining bytes of the buffer. The buffer's position is not
+     * changed.
+     */
+    public JsonTokenizer(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            this.bb = buf.array();
+            this.pos = buf.arrayOffset() + buf.position();
+            this.limit = buf.arrayOffset() + buf.limit();
+            this.base = -pos;
+        } else {
+            this.src = buf.duplicate();
+            this.bb = new byte[Math.min(BUFFER_SIZE, Math.max(src.remaining(), 16))];
+        }
+    }
+
+    public JsonTokenizer(Reader reader) {
+        this.reader = reader;
+        this.cb = new char[BUFFER_SIZE];
+    }
+
+    public JsonTokenizer(InputStream in) {
+        this.in = in;
+        this.bb = new byte[BUFFER_SIZE];
+    }
+
+    @Override
+    public boolean hasNext() {
+        return depth > 0 || event == null;
+    }
+
+    @Override
+    public Event next() {
+        int c = skipWs();
+
+        if (depth > 0) {
+            if (!keyRead) {
+                boolean obj = objects[depth - 1];
+
+                if (c == (obj ? '}' : ']')) {
+                    pos++;
+                    depth--;
+                    needComma = true;
+                    event = obj ? Event.END_OBJECT : Event.END_ARRAY;
+                    if (depth == 0) {
+                        checkEnd();
+                    }
+                    return event;
+                }
+
+                if (needComma) {
+                    if (c != ',') {
+                        throw error(c);
+                    }
+                    pos++;
+                    c = skipWs();
+                }
+
+                if (obj) {
+                    if (c != '"') {
+                        throw error(c);
+                    }
+                    pos++;
+                    readString();
+                    c = skipWs();
+                    if (c != ':') {
+                        throw error(c);
+                    }
+                    pos++;
+                    keyRead = true;
+                    return event = Event.KEY_NAME;
+                }
+            }
+        } else if (event != null) {
+            throw new NoSuchElementException();
+        }
+
+        keyRead = false;
+        event = readValue(c);
+        if (depth == 0) {
+            checkEnd();
+        }
+        return event;
+    }
+
+    /**
+     * Nothing but whitespace may follow the top level value.
+     */
+    private void checkEnd() {
+        int c = skipWs();
+        if (c != -1) {
+            throw error(c);
+        }
+    }
+
+    /**
+     * The current key, string or number, valid until the next call to
+     * {@link #next()}.
+     */
+    public CharSequence getCharSequence() {
+        checkToken();
+        return slice;
+    }
+
+    /**
+     * The current key as the canonical string from the shared symbol table.
+     */
+    public String getKeyName() {
+        checkToken();
+        return JsonSymbols.lookup(tok, tokOff, tokLen);
+    }
+
+    @Override
+    public String getString() {
+        checkToken();
+        return new String(tok, tokOff, tokLen);
+    }
+
+    @Override
+    public boolean isIntegralNumber() {
+        checkNumber();
+        return integral;
+    }
+
+    /**
+     * True if the current number is integral and fits in a long.
+     */
+    public boolean isLong() {
+        checkNumber();
+        return integral && !overflow;
+    }
+
+    @Override
+    public int getInt() {
+        checkNumber();
+        return integral && !overflow ? (int) num : getBigDecimal().intValue();
+    }
+
+    @Override
+    public long getLong() {
+        checkNumber();
+        return integral && !overflow ? num : getBigDecimal().longValue();
+    }
+
+    /**
+     * Numbers with at most 15 significant digits and small exponents are
+     * computed from the digits read, only others are parsed from a string.
+     */
+    public double getDouble() {
+        checkNumber();
+        if (integral && !overflow && num > -MAX_EXACT_DOUBLE && num < MAX_EXACT_DOUBLE) {
+            return num;
+        }
+        if (mantissa >= 0) {
+            long m = mantissa;
+            int e = exp10;
+
+            if (m == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+
+            // Move surplus powers of ten into the mantissa while it stays
+            // exact.
+            //
+            while (e >= POW10.length && m <= MAX_EXACT_DOUBLE / 10) {
+                m *= 10;
+                e--;
+            }
+            if (e > -POW10.length && e < POW10.length) {
+                double d = e < 0 ? m / POW10[-e] : m * POW10[e];
+                return negative ? -d : d;
+            }
+        }
+        return Double.parseDouble(getString());
+    }
+
+    @Override
+    public BigDecimal getBigDecimal() {
+        checkNumber();
+        return new BigDecimal(tok, tokOff, tokLen);
+    }
+
+    @Override
+    public JsonLocation getLocation() {
+        final long offset = base + pos;
+
+        return new JsonLocation() {
+            @Override
+            public long getLineNumber() {
+                return -1;
+            }
+
+            @Override
+            public long getColumnNumber() {
+                return -1;
+            }
+
+            @Override
+            public long getStreamOffset() {
+                return offset;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (reader != null) {
+                reader.close();
+            } else if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new JsonException("Close failed", e);
+        }
+    }
+
+    private void checkToken() {
+        if (event != Event.KEY_NAME && event != Event.VALUE_STRING && event != Event.VALUE_NUMBER) {
+            throw new IllegalStateException("No string at " + event);
+        }
+    }
+
+    private void checkNumber() {
+        if (event != Event.VALUE_NUMBER) {
+            throw new IllegalStateException("No number at " + event);
+        }
+    }
+
+    private Event readValue(int c) {
+        switch (c) {
+        case '{':
+            pos++;
+            push(true);
+            return Event.START_OBJECT;
+        case '[':
+            pos++;
+            push(false);
+            return Event.START_ARRAY;
+        case '"':
+            pos++;
+            readString();
+            needComma = true;
+            return Event.VALUE_STRING;
+        case 't':
+            literal("true");
+            return Event.VALUE_TRUE;
+        case 'f':
+            literal("false");
+            return Event.VALUE_FALSE;
+        case 'n':
+            literal("null");
+            return Event.VALUE_NULL;
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                readNumber();
+                needComma = true;
+                return Event.VALUE_NUMBER;
+            }
+            throw error(c);
+        }
+    }
+
+    private void push(boolean obj) {
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+        }
+        objects[depth++] = obj;
+        needComma = false;
+    }
+
+    private void literal(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            int c = peek();
+            if (c != s.charAt(i)) {
+                throw error(c);
+            }
+            pos++;
+        }
+        needComma = true;
+    }
+
+    private void readString() {
+        int i = pos;
+        tok = null;
+        slen = 0;
+
+        if (cb != null) {
+            // No escapes up to the closing quote, use the buffer itself.
+            //
+            for (; i < limit; i++) {
+                char ch = cb[i];
+                if (ch == '"') {
+                    setToken(cb, pos, i - pos);
+                    pos = i + 1;
+                    return;
+                }
+                if (ch == '\\' || ch < 0x20) {
+                    break;
+                }
+            }
+            append(cb, pos, i - pos);
+
+        } else {
+            // Copy plain ascii straight from the bytes.
+            //
+            for (; i < limit; i++) {
+                byte b = bb[i];
+                if (b == '"' || b == '\\' || b < 0x20) {
+                    break;
+                }
+            }
+            ensure(i - pos);
+            for (int j = pos; j < i; j++) {
+                sbuf[slen++] = (char) bb[j];
+            }
+            if (i < limit && bb[i] == '"') {
+                setToken(sbuf, 0, slen);
+                pos = i + 1;
+                return;
+            }
+        }
+
+        pos = i;
+        readStringSlow();
+    }
+
+    /**
+     * Decode the rest of the string into the scratch buffer.
+     */
+    private void readStringSlow() {
+        for (;;) {
+            int c = peek();
+            if (c < 0x20) {
+                throw error(c);
+            }
+            pos++;
+
+            if (c == '"') {
+                break;
+            }
+
+            if (c == '\\') {
+                c = peek();
+                pos++;
+                switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    append((char) c);
+                    break;
+                case 'b':
+                    append('\b');
+                    break;
+                case 'f':
+                    append('\f');
+                    break;
+                case 'n':
+                    append('\n');
+                    break;
+                case 'r':
+                    append('\r');
+                    break;
+                case 't':
+                    append('\t');
+                    break;
+                case 'u':
+                    int v = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int h = peek();
+                        int d = h < 0 ? -1 : Character.digit(h, 16);
+                        if (d < 0) {
+                            throw error(h);
+                        }
+                        pos++;
+                        v = (v << 4) | d;
+                    }
+                    append((char) v);
+                    break;
+                default:
+                    pos--;
+                    throw error(c);
+                }
+            } else if (c >= 0x80 && cb == null) {
+                decodeUtf8(c);
+            } else {
+                append((char) c);
+            }
+        }
+        setToken(sbuf, 0, slen);
+    }
+
+    private void decodeUtf8(int b) {
+        int cp;
+        int n;
+
+        if ((b & 0xe0) == 0xc0) {
+            cp = b & 0x1f;
+            n = 1;
+        } else if ((b & 0xf0) == 0xe0) {
+            cp = b & 0x0f;
+            n = 2;
+        } else if ((b & 0xf8) == 0xf0) {
+            cp = b & 0x07;
+            n = 3;
+        } else {
+            append('\ufffd');
+            return;
+        }
+
+        for (; n > 0; n--) {
+            int c = peek();
+            if ((c & 0xc0) != 0x80) {
+                append('\ufffd');
+                return;
+            }
+            pos++;
+            cp = (cp << 6) | (c & 0x3f);
+        }
+
+        if (cp > Character.MAX_CODE_POINT) {
+            append('\ufffd');
+        } else if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            append(Character.highSurrogate(cp));
+            append(Character.lowSurrogate(cp));
+        } else {
+            append((char) cp);
+        }
+    }
+
+    /**
+     * Read the number into the scratch buffer, accumulating its value as a
+     * negative long so that Long.MIN_VALUE is exact, and its digits and
+     * exponent for {@link #getDouble()}.
+     */
+    private void readNumber() {
+        tok = null;
+        slen = 0;
+        integral = true;
+        overflow = false;
+        mantissa = 0;
+        exp10 = 0;
+
+        long v = 0;
+        boolean neg = false;
+        int c = peek();
+
+        if (c == '-') {
+            neg = true;
+            c = appendNext(c);
+        }
+
+        if (c == '0') {
+            c = appendNext(c);
+        } else if (c >= '1' && c <= '9') {
+            do {
+                int d = c - '0';
+                if (v < (Long.MIN_VALUE + d) / 10) {
+                    overflow = true;
+                } else {
+                    v = v * 10 - d;
+                }
+                mantissa(d);
+                c = appendNext(c);
+            } while (c >= '0' && c <= '9');
+        } else {
+            throw error(c);
+        }
+
+        if (c == '.') {
+            integral = false;
+            c = appendNext(c);
+            if (c < '0' || c > '9') {
+                throw error(c);
+            }
+            do {
+                mantissa(c - '0');
+                exp10--;
+                c = appendNext(c);
+            } while (c >= '0' && c <= '9');
+        }
+
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            c = appendNext(c);
+            boolean expNeg = c == '-';
+            if (c == '+' || c == '-') {
+                c = appendNext(c);
+            }
+            if (c < '0' || c > '9') {
+                throw error(c);
+            }
+            int e = 0;
+            do {
+                if (e < 100000) {
+                    e = e * 10 + c - '0';
+                }
+                c = appendNext(c);
+            } while (c >= '0' && c <= '9');
+            exp10 += expNeg ? -e : e;
+        }
+
+        negative = neg;
+        if (!neg) {
+            if (v == Long.MIN_VALUE) {
+                overflow = true;
+            } else {
+                v = -v;
+            }
+        }
+        num = v;
+        setToken(sbuf, 0, slen);
+    }
+
+    private void mantissa(int d) {
+        if (mantissa >= 0 && mantissa <= (MAX_EXACT_DOUBLE - d) / 10) {
+            mantissa = mantissa * 10 + d;
+        } else {
+            mantissa = -1;
+        }
+    }
+
+    private int appendNext(int c) {
+        append((char) c);
+        pos++;
+        return peek();
+    }
+
+    private void setToken(char[] buf, int off, int len) {
+        tok = buf;
+        tokOff = off;
+        tokLen = len;
+    }
+
+    private void append(char c) {
+        if (slen == sbuf.length) {
+            sbuf = Arrays.copyOf(sbuf, slen * 2);
+        }
+        sbuf[slen++] = c;
+    }
+
+    private void append(char[] buf, int off, int len) {
+        ensure(len);
+        System.arraycopy(buf, off, sbuf, slen, len);
+        slen += len;
+    }
+
+    private void ensure(int len) {
+        if (slen + len > sbuf.length) {
+            sbuf = Arrays.copyOf(sbuf, Math.max(sbuf.length * 2, slen + len));
+        }
+    }
+
+    private int skipWs() {
+        for (;;) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * The current character or byte, or -1 at the end of the input.
+     */
+    private int peek() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return cb != null ? cb[pos] : bb[pos] & 0xff;
+    }
+
+    private boolean fill() {
+        try {
+            int n;
+            if (reader != null) {
+                // The current token may be a slice of the buffer being
+                // replaced.
+                //
+                if (tok == cb) {
+                    slen = 0;
+                    append(cb, tokOff, tokLen);
+                    setToken(sbuf, 0, slen);
+                }
+                n = reader.read(cb, 0, cb.length);
+            } else if (in != null) {
+                n = in.read(bb, 0, bb.length);
+            } else if (src != null && src.hasRemaining()) {
+                n = Math.min(src.remaining(), bb.length);
+                src.get(bb, 0, n);
+            } else {
+                return false;
+            }
+            if (n <= 0) {
+                return false;
+            }
+            base += limit;
+            pos = 0;
+            limit = n;
+            return true;
+
+        } catch (IOException e) {
+            throw new JsonException("Read failed", e);
+        }
+    }
+
+    private JsonParsingException error(int c) {
+        String msg = c < 0 ? "Unexpected end of json" : "Unexpected char '" + (char) c + "'";
+        return new JsonParsingException(msg, getLocation());
+    }
+
+    /**
+     * View of the current token.
+     */
+    private final class Slice implements CharSequence {
+        @Override
+        public int length() {
+            return tokLen;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= tokLen) {
+                throw new IndexOutOfBoundsException();
+            }
+            return tok[tokOff + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(tok, tokOff, tokLen);
+        }
+    }
+}
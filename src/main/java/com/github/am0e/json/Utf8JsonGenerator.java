@@ -0,0 +1,566 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.json.JsonException;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Json generator writing UTF-8 bytes directly into a byte buffer, which is
+ * drained to an {@link OutputStream} or a {@link ByteBuffer} when full, or
+ * grown if there is neither. No characters or strings are created for the
+ * document.
+ * 
+ * Generators are reused. {@link #acquire} returns the calling thread's
+ * generator, or a new one if it is already in use further up the stack, and
+ * {@link #release()} returns it, keeping its buffer unless it grew large.
+ * 
+ * The output is the same as the javax.json generator's.
+ */
+public final class Utf8JsonGenerator implements JsonGenerator {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * For each ascii character, 0 if it is written as is, otherwise the
+     * character following the backslash.
+     */
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+    }
+
+    private static final ThreadLocal<Utf8JsonGenerator> generators = new ThreadLocal<>();
+
+    private byte[] buf;
+    private int pos;
+    private OutputStream out;
+    private ByteBuffer target;
+    private boolean inUse;
+
+    /**
+     * Per level, the closing bracket and whether an element has been written.
+     */
+    private byte[] closers = new byte[16];
+    private boolean[] started = new boolean[16];
+    private int depth;
+
+    private Utf8JsonGenerator() {
+        this.buf = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Get a generator writing to the stream.
+     */
+    public static Utf8JsonGenerator acquire(OutputStream out) {
+        Utf8JsonGenerator it = acquire();
+        it.out = out;
+        return it;
+    }
+
+    /**
+     * Get a generator writing into the buffer. A document that does not fit
+     * throws {@link java.nio.BufferOverflowException}.
+     */
+    public static Utf8JsonGenerator acquire(ByteBuffer target) {
+        Utf8JsonGenerator it = acquire();
+        it.target = target;
+        return it;
+    }
+
+    /**
+     * Get a generator writing into its own buffer, grown as needed. See
+     * {@link #toUtf8String()}.
+     */
+    public static Utf8JsonGenerator acquire() {
+        Utf8JsonGenerator it = generators.get();
+        if (it == null) {
+            it = new Utf8JsonGenerator();
+            generators.set(it);
+        } else if (it.inUse) {
+            it = new Utf8JsonGenerator();
+        }
+        it.inUse = true;
+        return it;
+    }
+
+    /**
+     * Return the generator for reuse. Unflushed output is discarded.
+     */
+    public void release() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[BUFFER_SIZE];
+        }
+        pos = 0;
+        depth = 0;
+        out = null;
+        target = null;
+        inUse = false;
+    }
+
+    /**
+     * The document written so far when writing into the generator's own
+     * buffer.
+     */
+    public String toUtf8String() {
+        return new String(buf, 0, pos, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public JsonGenerator writeStartObject() {
+        comma();
+        push('}');
+        writeByte('{');
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartObject(String name) {
+        writeName(name);
+        push('}');
+        writeByte('{');
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray() {
+        comma();
+        push(']');
+        writeByte('[');
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray(String name) {
+        writeName(name);
+        push(']');
+        writeByte('[');
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeEnd() {
+        if (depth == 0) {
+            throw new JsonGenerationException("writeEnd() outside an object or array");
+        }
+        writeByte((char) closers[--depth]);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, JsonValue value) {
+        writeName(name);
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, String value) {
+        writeName(name);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigInteger value) {
+        writeName(name);
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigDecimal value) {
+        writeName(name);
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, int value) {
+        writeName(name);
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, long value) {
+        writeName(name);
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, double value) {
+        writeName(name);
+        writeDouble(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, boolean value) {
+        writeName(name);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull(String name) {
+        writeName(name);
+        writeBytes(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(JsonValue value) {
+        comma();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String value) {
+        comma();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(BigDecimal value) {
+        comma();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(BigInteger value) {
+        comma();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(int value) {
+        comma();
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(long value) {
+        comma();
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(double value) {
+        comma();
+        writeDouble(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(boolean value) {
+        comma();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull() {
+        comma();
+        writeBytes(NULL);
+        return this;
+    }
+
+    /**
+     * Encode the name once as the quoted and escaped name followed by the
+     * colon, for the write methods taking an encoded name.
+     */
+    static byte[] encodeName(String name) {
+        Utf8JsonGenerator g = new Utf8JsonGenerator();
+        g.writeString(name);
+        g.writeByte(':');
+        return Arrays.copyOf(g.buf, g.pos);
+    }
+
+    void write(byte[] name, long value) {
+        comma();
+        writeBytes(name);
+        writeLong(value);
+    }
+
+    void write(byte[] name, double value) {
+        comma();
+        writeBytes(name);
+        writeDouble(value);
+    }
+
+    void write(byte[] name, boolean value) {
+        comma();
+        writeBytes(name);
+        writeBytes(value ? TRUE : FALSE);
+    }
+
+    void write(byte[] name, String value) {
+        comma();
+        writeBytes(name);
+        writeString(value);
+    }
+
+    /**
+     * Drain the buffer to the stream or target buffer, and flush the stream.
+     */
+    @Override
+    public void flush() {
+        drain();
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new JsonException("Flush failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new JsonException("Close failed", e);
+            }
+        }
+    }
+
+    private void push(char closer) {
+        if (depth == closers.length) {
+            closers = Arrays.copyOf(closers, depth * 2);
+            started = Arrays.copyOf(started, depth * 2);
+        }
+        closers[depth] = (byte) closer;
+        started[depth++] = false;
+    }
+
+    private void comma() {
+        if (depth > 0) {
+            if (started[depth - 1]) {
+                writeByte(',');
+            } else {
+                started[depth - 1] = true;
+            }
+        }
+    }
+
+    private void writeName(String name) {
+        comma();
+        writeString(name);
+        writeByte(':');
+    }
+
+    private void writeByte(char c) {
+        require(1);
+        buf[pos++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        require(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void writeLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        require(20);
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+
+        // Digits are generated backwards then reversed in place.
+        //
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte b = buf[i];
+            buf[i] = buf[j];
+            buf[j] = b;
+        }
+    }
+
+    private void writeDouble(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            throw new NumberFormatException("Not a json number " + v);
+        }
+        writeAscii(String.valueOf(v));
+    }
+
+    private void writeAscii(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            writeChar(s.charAt(i), s, i);
+        }
+    }
+
+    /**
+     * Write the string quoted, escaping quotes, backslashes and control
+     * characters.
+     */
+    private void writeString(String s) {
+        writeByte('"');
+        int len = s.length();
+        int i = 0;
+
+        while (i < len) {
+            require(1);
+
+            // Plain ascii is copied as is, as far as the buffer has room.
+            //
+            int end = Math.min(len, i + buf.length - pos);
+            for (; i < end; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80 || ESCAPES[c] != 0) {
+                    break;
+                }
+                buf[pos++] = (byte) c;
+            }
+
+            if (i < end) {
+                i += writeSpecial(s.charAt(i), s, i) + 1;
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write a character that needs escaping or encoding.
+     * 
+     * @return 1 if the next character was consumed as the low surrogate.
+     */
+    private int writeSpecial(char c, String s, int i) {
+        if (c >= 0x80) {
+            return writeChar(c, s, i);
+        }
+        require(6);
+        byte e = ESCAPES[c];
+        buf[pos++] = '\\';
+        if (e == 'u') {
+            buf[pos++] = 'u';
+            buf[pos++] = '0';
+            buf[pos++] = '0';
+            buf[pos++] = HEX[c >> 4];
+            buf[pos++] = HEX[c & 0xf];
+        } else {
+            buf[pos++] = e;
+        }
+        return 0;
+    }
+
+    /**
+     * Write the character as UTF-8.
+     * 
+     * @return 1 if the next character was consumed as the low surrogate.
+     */
+    private int writeChar(char c, String s, int i) {
+        require(4);
+        if (c < 0x80) {
+            buf[pos++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[pos++] = (byte) (0xc0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buf[pos++] = (byte) (0xf0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            return 1;
+        } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate, replaced as by the UTF-8 encoder.
+            //
+            buf[pos++] = '?';
+        } else {
+            buf[pos++] = (byte) (0xe0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return 0;
+    }
+
+    /**
+     * Make room for n more bytes, by writing the buffer out or by growing it.
+     */
+    private void require(int n) {
+        if (pos + n > buf.length) {
+            drain();
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    /**
+     * Write the buffer out, if there is somewhere to write it.
+     */
+    private void drain() {
+        if (out != null) {
+            try {
+                out.write(buf, 0, pos);
+            } catch (IOException e) {
+                throw new JsonException("Write failed", e);
+            }
+            pos = 0;
+        } else if (target != null) {
+            target.put(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,777 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.github.am0e;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.github.am0e.cache.CacheStats;
+import com.github.am0e.cache.ICache;
+import com.github.am0e.cache.IntKeyCache;
+import com.github.am0e.cache.LongKeyCache;
+import com.github.am0e.cache.RemovalCause;
+import com.github.am0e.cache.impl.BoundedMemCache;
+import com.github.am0e.cache.impl.CacheItem;
+import com.github.am0e.cache.impl.CacheSnapshot;
+import com.github.am0e.cache.impl.CacheTrace;
+import com.github.am0e.cache.impl.ExpiringLongObjectMap;
+import com.github.am0e.cache.impl.HashMapCache;
+import com.github.am0e.cache.impl.LoopbackInvalidationBus;
+import com.github.am0e.cache.impl.NearCache;
+import com.github.am0e.cache.impl.OffHeapCache;
+import com.github.am0e.cache.impl.RecordingCache;
+import com.github.am0e.cache.impl.SerializingCodec;
+import com.github.am0e.cache.impl.SimpleMemCache;
+import com.github.am0e.cache.impl.SimpleMemCacheBean;
+import com.github.am0e.cache.impl.SizeEstimator;
+import com.github.am0e.cache.impl.SocketInvalidationBus;
+import com.github.am0e.jbeans.ClassCache;
+
+public class CacheTests {
+
+    private static SimpleMemCacheBean bean(String name) {
+        SimpleMemCacheBean def = new SimpleMemCacheBean(CacheTests.class.getName() + "$" + name);
+        def.setUseSoftReferences(false);
+        return def;
+    }
+
+    @Test
+    public void testBoundedScanResistance() {
+        SimpleMemCacheBean def = bean("bounded");
+        def.setMaxEntries(100);
+        ICache<Integer> cache = SimpleMemCache.registerCache(def);
+        assertTrue(cache instanceof BoundedMemCache);
+
+        // Warm up a hot set and hit it a few times.
+        //
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, i);
+        }
+        for (int n = 0; n < 5; n++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get("hot" + i);
+            }
+        }
+
+        // Scan a large number of one-off keys through the cache.
+        //
+        for (int i = 0; i < 10000; i++) {
+            cache.put("scan" + i, i);
+        }
+
+        BoundedMemCache<Integer> bounded = (BoundedMemCache<Integer>) cache;
+        assertTrue(bounded.getSize() <= 100);
+
+        int hits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                hits++;
+            }
+        }
+        assertTrue("hot hits " + hits, hits >= 45);
+    }
+
+    @Test
+    public void testBoundedWeight() {
+        SimpleMemCacheBean def = bean("weighted");
+        def.setMaxWeight(1000);
+        def.setWeigher((k, v) -> ((String) v).length());
+        ICache<String> cache = SimpleMemCache.registerCache(def);
+        BoundedMemCache<String> bounded = (BoundedMemCache<String>) cache;
+
+        for (int i = 0; i < 500; i++) {
+            cache.put(i, "0123456789");
+        }
+        assertTrue(bounded.getWeightedSize() <= 1000);
+        assertEquals(bounded.getWeightedSize(), bounded.getSize() * 10);
+        assertNotNull(cache.get(499));
+    }
+
+    @Test
+    public void testTimerWheelExpiry() throws InterruptedException {
+        SimpleMemCacheBean def = bean("expiry");
+        ICache<Integer> cache = SimpleMemCache.registerCache(def);
+        SimpleMemCache<Integer> mem = (SimpleMemCache<Integer>) cache;
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i, 50);
+        }
+        cache.put("forever", 1);
+        assertEquals(101, mem.getSize());
+
+        // The expired entries are removed without being read.
+        //
+        Thread.sleep(1100);
+        mem.cleanUp();
+        assertEquals(1, mem.getSize());
+        assertEquals(100, mem.getCountExpires());
+        assertNotNull(cache.get("forever"));
+    }
+
+    @Test
+    public void testCleanupTaskReleasesCache() throws InterruptedException {
+        SimpleMemCacheBean def = bean("cleanup");
+        def.setCleanupInterval("1S");
+        WeakReference<ICache<String>> ref = new WeakReference<>(SimpleMemCache.registerCache(def));
+
+        // Once replaced only the cleanup task refers to the first cache.
+        //
+        SimpleMemCache.registerCache(def);
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void testCollectedValues() throws InterruptedException {
+        SimpleMemCacheBean def = bean("weak");
+        def.setUseWeakReferences(true);
+        SimpleMemCache<Object> cache = (SimpleMemCache<Object>) SimpleMemCache.<Object> registerCache(def);
+        Object value = new Object();
+        cache.put("a", value);
+        assertSame(value, cache.get("a"));
+
+        // Drop the only strong reference and wait for the GC to clear it.
+        //
+        value = null;
+        for (int i = 0; i < 100 && cache.getSize() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+            cache.cleanUp();
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals(1L, cache.stats().getCountEvictions(RemovalCause.COLLECTED));
+    }
+
+    @Test
+    public void testSingleFlightLoad() throws Exception {
+        ICache<String> cache = SimpleMemCache.registerCache(bean("loading"));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            results.add(exec.submit(() -> {
+                start.await();
+                return cache.get("k", k -> {
+                    loads.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                    }
+                    return "v";
+                });
+            }));
+        }
+        start.countDown();
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        for (Future<String> result : results) {
+            assertEquals("v", result.get());
+        }
+        assertEquals(1, loads.get());
+
+        // Bulk load only the missing keys.
+        //
+        Map<Object, String> all = cache.getAll(Arrays.asList("k", "a", "b"), keys -> {
+            assertEquals(2, keys.size());
+            Map<Object, String> m = new HashMap<>();
+            for (Object key : keys) {
+                m.put(key, key + "!");
+            }
+            return m;
+        });
+        assertEquals(3, all.size());
+        assertEquals("a!", cache.get("a"));
+
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.getCountLoads());
+        assertEquals(0, stats.getCountLoadFailures());
+        assertTrue(stats.getCountHits() > 0);
+    }
+
+    @Test
+    public void testClassCacheNotFound() throws Exception {
+        ClassLoader cl = getClass().getClassLoader();
+        assertSame(String.class, ClassCache.loadClass(cl, "java.lang.String"));
+        try {
+            ClassCache.loadClass(cl, "com.github.am0e.NoSuchClass");
+            fail();
+        } catch (ClassNotFoundException e) {
+            assertEquals("com.github.am0e.NoSuchClass", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        SimpleMemCacheBean def = bean("refresh");
+        def.setTtl("10S");
+        def.setRefreshAfter("1S");
+        def.setRefreshExecutor(Runnable::run);
+        AtomicInteger version = new AtomicInteger();
+        def.setRefreshLoader(k -> "v" + version.incrementAndGet());
+        SimpleMemCache<String> cache = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+
+        cache.put("k", "v0");
+        cache.put("n", "v0", -1);
+        assertEquals("v0", cache.get("k"));
+
+        // A stale hit returns the current value and reloads it.
+        //
+        Thread.sleep(1100);
+        assertEquals("v0", cache.get("k"));
+        assertEquals("v1", cache.get("k"));
+        assertEquals(1, version.get());
+        assertEquals("v0", cache.get("n"));
+        assertEquals("v2", cache.get("n"));
+
+        // The reloaded entries keep their own lifetimes.
+        //
+        Set<Long> lifetimes = new HashSet<>();
+        for (CacheItem item : cache.getCachedObjects()) {
+            lifetimes.add(item.expiryTime() > 0 ? item.expiryTime() - item.writeTime() : item.expiryTime());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(10000L, -1L)), lifetimes);
+    }
+
+    @Test
+    public void testOffHeap() {
+        SimpleMemCacheBean def = bean("offheap");
+        def.setOffHeapCapacity(64 * 1024);
+        def.setSlabSize(16 * 1024);
+        ICache<String> cache = SimpleMemCache.registerCache(def);
+        OffHeapCache<String> offHeap = (OffHeapCache<String>) cache;
+
+        cache.put("k", "value");
+        assertEquals("value", cache.get("k"));
+        cache.put("k", "value2");
+        assertEquals("value2", cache.get("k"));
+
+        // Overflow the slabs, the oldest entries are evicted.
+        //
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, "value " + i);
+        }
+        assertTrue(offHeap.getCountEvictions() > 0);
+        assertEquals(null, cache.get(0));
+        assertEquals("value 9999", cache.get(9999));
+
+        assertEquals("loaded", cache.get("l", k -> "loaded"));
+        assertEquals(1, offHeap.stats().getCountLoads());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException, InterruptedException {
+        File file = File.createTempFile("cache", ".snapshot");
+        file.delete();
+        file.deleteOnExit();
+
+        SimpleMemCacheBean def = bean("snapshot");
+        def.setSnapshotFile(file.getPath());
+        SimpleMemCache<String> cache = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value " + i, i == 0 ? 1 : 60000);
+        }
+        cache.put("never", "forever");
+        Thread.sleep(10);
+        assertEquals(100, cache.writeSnapshot());
+
+        // Restart, the values are restored as they are read.
+        //
+        SimpleMemCache<String> restored = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+        assertEquals(0, restored.getSize());
+        assertEquals("value 50", restored.get(50));
+        assertEquals("forever", restored.get("never"));
+        assertEquals(null, restored.get(0));
+        assertEquals(2, restored.getSize());
+
+        // A restore does not overwrite a value cached meanwhile.
+        //
+        CacheSnapshot<String> snapshot = CacheSnapshot.open(file.toPath(), new SerializingCodec<>());
+        restored.put(60, "newer");
+        assertEquals("newer", snapshot.restore(60, restored));
+        assertEquals("newer", restored.get(60));
+
+        // Writing again keeps the entries not yet restored.
+        //
+        assertEquals(100, restored.writeSnapshot());
+        SimpleMemCache<String> again = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+        assertEquals("value 70", again.get(70));
+        assertEquals("value 50", again.get(50));
+        assertEquals("newer", again.get(60));
+
+        // Keys that cannot be decoded are skipped.
+        //
+        again.put(new BadKey(), "bad");
+        assertEquals(101, again.writeSnapshot());
+        snapshot = CacheSnapshot.open(file.toPath(), new SerializingCodec<>());
+        assertEquals(1, snapshot.getCountSkipped());
+        assertEquals(100, snapshot.size());
+    }
+
+    @Test
+    public void testSnapshotIdleTime() throws IOException, InterruptedException {
+        File file = File.createTempFile("cache", ".snapshot");
+        file.delete();
+        file.deleteOnExit();
+
+        SimpleMemCacheBean def = bean("snapshot-idle");
+        def.setSnapshotFile(file.getPath());
+        def.setExpireAfterAccess("1S");
+        SimpleMemCache<String> cache = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+        cache.put("k", "v");
+        Thread.sleep(700);
+        assertEquals(1, cache.writeSnapshot());
+
+        // The idle time restarts when restored rather than ending when it
+        // would have before the restart.
+        //
+        SimpleMemCache<String> restored = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(def);
+        assertEquals("v", restored.get("k"));
+        Thread.sleep(600);
+        assertEquals("v", restored.get("k"));
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        String name = CacheTests.class.getName() + "$registry";
+        ICache<String> cache = SimpleMemCache.getCache(name);
+        assertTrue(cache == SimpleMemCache.<String> getCache(name));
+        cache.put("k", "v");
+        cache.get("k");
+
+        Object hits = ManagementFactory.getPlatformMBeanServer().getAttribute(SimpleMemCache.getObjectName(name),
+                "CountHits");
+        assertEquals(1L, hits);
+    }
+
+    @Test
+    public void testNearCacheInvalidation() {
+        // Two nodes, each with their own L2.
+        //
+        LoopbackInvalidationBus bus = new LoopbackInvalidationBus();
+        ICache<String> l2a = SimpleMemCache.registerCache(bean("near-a"));
+        ICache<String> l2b = SimpleMemCache.registerCache(bean("near-b"));
+        NearCache<String> a = new NearCache<>("near", l2a, bus, 64, 60000);
+        NearCache<String> b = new NearCache<>("near", l2b, bus, 64, 60000);
+
+        l2a.put("k", "v1");
+        l2b.put("k", "v1");
+        assertEquals("v1", a.get("k"));
+        assertEquals("v1", b.get("k"));
+
+        // A change on one node invalidates both levels of the other.
+        //
+        a.put("k", "v2");
+        assertEquals("v2", a.get("k"));
+        assertEquals(null, b.get("k"));
+        assertEquals(null, l2b.get("k"));
+
+        b.put("k", "v3");
+        a.clearCache();
+        assertEquals(null, b.get("k"));
+    }
+
+    @Test
+    public void testSocketInvalidationBus() throws Exception {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        try (SocketInvalidationBus a = new SocketInvalidationBus(0);
+                SocketInvalidationBus b = new SocketInvalidationBus(0, a.getPort())) {
+            a.subscribe((source, cacheName, key) -> received.add(key == null ? "ALL" : key));
+
+            Date date = new Date();
+            b.publish("b", "c", "k");
+            b.publish("b", "c", 42L);
+            b.publish("b", "c", 7);
+            b.publish("b", "c", date);
+            b.publish("b", "c", Arrays.asList("a", 1));
+            assertEquals("k", received.poll(5, TimeUnit.SECONDS));
+            assertEquals(42L, received.poll(5, TimeUnit.SECONDS));
+            assertEquals(7, received.poll(5, TimeUnit.SECONDS));
+            assertEquals(date, received.poll(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("a", 1), received.poll(5, TimeUnit.SECONDS));
+
+            // A key too large for a datagram is sent as a clear, after it is
+            // delivered locally.
+            //
+            BlockingQueue<Object> local = new LinkedBlockingQueue<>();
+            b.subscribe((source, cacheName, key) -> local.add(key));
+            String large = StringUtils.repeat('x', 70000);
+            b.publish("b", "c", large);
+            assertEquals(large, local.poll());
+            assertEquals("ALL", received.poll(5, TimeUnit.SECONDS));
+        }
+
+        // Without a key codec other keys are sent as a clear.
+        //
+        try (SocketInvalidationBus a = new SocketInvalidationBus(0);
+                SocketInvalidationBus b = new SocketInvalidationBus(null, 0, a.getPort())) {
+            a.subscribe((source, cacheName, key) -> received.add(key == null ? "ALL" : key));
+            b.publish("b", "c", new Date());
+            assertEquals("ALL", received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testPrimitiveKeys() throws Exception {
+        LongKeyCache<String> cache = new LongKeyCache<>(-1, 4);
+
+        // Enough entries to force the tables to rehash.
+        //
+        for (long i = 0; i < 10000; i++) {
+            cache.put(i << 32, "v" + i, i % 2 == 0 ? 1 : -1);
+        }
+        assertEquals(10000, cache.size());
+        assertEquals("v1", cache.get(1L << 32));
+        assertEquals("v1", cache.get((Object) (1L << 32)));
+
+        Thread.sleep(10);
+        assertEquals(null, cache.get(2L << 32));
+        cache.cleanUp();
+        assertEquals(5000, cache.size());
+        assertEquals(5000L, cache.stats().getCountEvictions());
+
+        // The expiry times survive serialization.
+        //
+        ExpiringLongObjectMap<String> map = new ExpiringLongObjectMap<>();
+        long now = System.currentTimeMillis();
+        map.put(1, "expired", now - 1);
+        map.put(2, "live", now + 60000);
+        map.put(3, "never");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+            out.writeObject(map);
+        }
+        @SuppressWarnings("unchecked")
+        ExpiringLongObjectMap<String> copy = (ExpiringLongObjectMap<String>) new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray())).readObject();
+        assertEquals(3, copy.size());
+        assertEquals(null, copy.get(1, now));
+        assertEquals("live", copy.get(2, now));
+        assertEquals(null, copy.get(2, now + 60000));
+        assertEquals("never", copy.get(3, Long.MAX_VALUE));
+        assertEquals(2, copy.takeCountExpired());
+
+        IntKeyCache<String> ints = new IntKeyCache<>(-1);
+        ints.put(7, "seven");
+        assertEquals("seven", ints.get(7));
+        ints.remove(7);
+        assertEquals(null, ints.get(7));
+    }
+
+    @Test
+    public void testBulkOperations() {
+        ICache<String> cache = SimpleMemCache.registerCache(bean("bulk"));
+        Map<Object, String> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(i, "v" + i);
+        }
+        cache.putAll(entries, 60000);
+        cache.putAll(Collections.singletonMap(100, "v100"), -1);
+
+        Map<Object, String> found = cache.getAll(Arrays.asList(0, 50, 100, 200));
+        assertEquals(3, found.size());
+        assertEquals("v50", found.get(50));
+        assertEquals(null, found.get(200));
+
+        CacheStats stats = cache.stats();
+        assertEquals(101L, stats.getCountAdded());
+        assertEquals(3L, stats.getCountHits());
+        assertEquals(1L, stats.getCountMisses());
+
+        cache.removeAll(Arrays.asList(0, 50, 100));
+        assertEquals(98, cache.getAll(entries.keySet()).size());
+        assertEquals(null, cache.get(100));
+    }
+
+    @Test
+    public void testAsyncLoad() throws Exception {
+        SimpleMemCache<String> cache = (SimpleMemCache<String>) SimpleMemCache.<String> registerCache(bean("async"));
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> a = cache.getAsync("k", key -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> b = cache.getAsync("k", key -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        assertEquals(1, calls.get());
+        assertTrue(a.isDone() == false);
+
+        // A caller completing its own future does not complete the others.
+        //
+        a.complete("mine");
+        assertTrue(b.isDone() == false);
+
+        pending.complete("v");
+        assertEquals("mine", a.get());
+        assertEquals("v", b.get());
+        assertEquals("v", cache.get("k"));
+
+        // A failed load is not cached.
+        //
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("down"));
+        CompletableFuture<String> c = cache.getAsync("f", key -> failed);
+        assertTrue(c.isCompletedExceptionally());
+        assertEquals("up", cache.getAsync("f", key -> CompletableFuture.completedFuture("up")).get());
+        assertEquals(1L, cache.stats().getCountLoadFailures());
+    }
+
+    @Test
+    public void testExpiryPolicies() throws Exception {
+        // Jitter spreads the expiry times of entries written together.
+        //
+        SimpleMemCacheBean def = bean("jitter");
+        def.setTtlJitter(50);
+        SimpleMemCache<Integer> jittered = (SimpleMemCache<Integer>) SimpleMemCache.<Integer> registerCache(def);
+        for (int i = 0; i < 100; i++) {
+            jittered.put(i, i, 60000);
+        }
+        Set<Long> expiryTimes = new HashSet<>();
+        for (CacheItem item : jittered.getCachedObjects()) {
+            long ttl = item.expiryTime() - item.writeTime();
+            assertTrue(ttl > 30000 && ttl <= 60000);
+            expiryTimes.add(item.expiryTime());
+        }
+        assertTrue(expiryTimes.size() > 10);
+
+        // The expiry policy sets the TTL per entry.
+        //
+        def = bean("expiry");
+        def.setExpiry((Object key, String value, long ttl) -> value.startsWith("short") ? 1 : -1);
+        ICache<String> policy = SimpleMemCache.registerCache(def);
+        policy.put("a", "short");
+        policy.put("b", "long");
+
+        // An idle entry expires, one read in time does not.
+        //
+        def = bean("idle");
+        def.setExpireAfterAccess("1S");
+        ICache<String> idle = SimpleMemCache.registerCache(def);
+        idle.put("read", "r");
+        idle.put("unread", "u");
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(250);
+            assertEquals("r", idle.get("read"));
+        }
+        assertEquals(null, idle.get("unread"));
+
+        assertEquals(null, policy.get("a"));
+        assertEquals("long", policy.get("b"));
+    }
+
+    @Test
+    public void testTagInvalidation() {
+        ICache<String> cache = SimpleMemCache.registerCache(bean("tags"));
+        cache.put("user", "u", -1, "user:42");
+        cache.put("orders", "o", -1, "user:42/orders");
+        cache.put("other", "x", -1, "user:420");
+        cache.put("plain", "p");
+
+        cache.invalidateTag("user:42");
+        assertEquals(null, cache.get("user"));
+        assertEquals(null, cache.get("orders"));
+        assertEquals("x", cache.get("other"));
+        assertEquals("p", cache.get("plain"));
+
+        // Replacing or removing an entry takes it out of the tag's index.
+        //
+        cache.put("a", "1", -1, "t");
+        cache.put("a", "2");
+        cache.put("b", "1", -1, "t");
+        cache.remove("b");
+        cache.put("b", "2");
+        cache.invalidateTag("t");
+        assertEquals("2", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+
+        // A near cache passes the tags to its L2.
+        //
+        NearCache<String> near = new NearCache<>("near-tags", SimpleMemCache.registerCache(bean("near-tags")),
+                new LoopbackInvalidationBus(), 16, 60000);
+        near.put("n", "1", -1, "t");
+        assertEquals("1", near.get("n"));
+        near.invalidateTag("t");
+        assertEquals(null, near.get("n"));
+
+        // Caches without tags ignore them and clear on a tag invalidation.
+        //
+        ICache<String> map = new HashMapCache<>(new HashMap<>());
+        map.put("k", "v", -1, "t");
+        map.put("other", "v", -1);
+        assertEquals("v", map.get("k"));
+        map.invalidateTag("t");
+        assertEquals(null, map.get("k"));
+        assertEquals(null, map.get("other"));
+    }
+
+    @Test
+    public void testNearCacheTagInvalidation() throws Exception {
+        // Two nodes, A sending to B.
+        //
+        try (SocketInvalidationBus busB = new SocketInvalidationBus(0);
+                SocketInvalidationBus busA = new SocketInvalidationBus(0, busB.getPort())) {
+            NearCache<String> a = new NearCache<>("near-tag", SimpleMemCache.registerCache(bean("near-tag-a")), busA,
+                    16, 60000);
+            NearCache<String> b = new NearCache<>("near-tag", SimpleMemCache.registerCache(bean("near-tag-b")), busB,
+                    16, 60000);
+
+            for (NearCache<String> it : Arrays.asList(a, b)) {
+                it.getL2().put("user", "u", -1, "user:42");
+                it.getL2().put("plain", "p");
+                assertEquals("u", it.get("user"));
+                assertEquals("p", it.get("plain"));
+            }
+
+            a.invalidateTag("user:42");
+            assertEquals(null, a.get("user"));
+            assertEquals("p", a.get("plain"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (b.getL2().get("user") != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(null, b.get("user"));
+            assertEquals("p", b.getL2().get("plain"));
+            assertEquals("p", b.get("plain"));
+        }
+    }
+
+    @Test
+    public void testTraceRecording() throws Exception {
+        File file = File.createTempFile("cache", ".trace");
+        file.deleteOnExit();
+
+        try (CacheTrace.Writer trace = new CacheTrace.Writer(file.toPath())) {
+            ICache<String> cache = new RecordingCache<>(SimpleMemCache.registerCache(bean("trace")), trace);
+            cache.put(1L, "a");
+            cache.get(1L);
+            cache.get("k");
+            cache.getAll(Arrays.asList(2, 3));
+        }
+
+        long[] ids = CacheTrace.read(file.toPath());
+        assertTrue(Arrays.equals(new long[] { 1, CacheTrace.keyId("k"), 2, 3 }, ids));
+    }
+
+    static class BadKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            throw new InvalidObjectException("Not restorable");
+        }
+    }
+
+    public static class Order {
+        static final AtomicInteger reads = new AtomicInteger();
+        private String name;
+        private byte[] data;
+
+        public String getName() {
+            reads.incrementAndGet();
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public void setData(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    @Test
+    public void testMemoryBound() {
+        SizeEstimator estimator = new SizeEstimator();
+        assertEquals(1016L, estimator.estimate(new byte[1000]));
+        assertEquals(48L, estimator.estimate("abc"));
+
+        Order order = new Order();
+        order.setName("abc");
+        order.setData(new byte[1000]);
+        assertEquals(24L + 48 + 1016, estimator.estimate(order));
+        assertEquals(0, Order.reads.get());
+
+        SimpleMemCacheBean def = bean("memory");
+        def.setMaxMemory("1 GB");
+        assertEquals(1L << 30, def.getMaxMemoryVal());
+        def.setMaxMemory("512MB");
+        assertEquals(512L << 20, def.getMaxMemoryVal());
+        try {
+            def.setMaxMemory("lots");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("memory"));
+        }
+        def.setMaxMemory("100K");
+        BoundedMemCache<byte[]> cache = (BoundedMemCache<byte[]>) SimpleMemCache.<byte[]> registerCache(def);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, new byte[4096]);
+        }
+        assertEquals(100L * 1024, cache.getMaxWeight());
+        assertTrue(cache.getWeightedSize() <= 100L * 1024);
+        assertTrue(cache.getCountEvictions() >= 75);
+    }
+}
@@ -19,25 +19,40 @@ package com.github.am0e;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParsingException;
+
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.junit.Test;
 
 import com.github.am0e.json.JsonObjectReader;
 import com.github.am0e.json.JsonObjectWriter;
+import com.github.am0e.json.JsonTokenizer;
 import com.github.am0e.lib.AntLib;
 import com.github.am0e.msgs.Msgs;
 
@@ -177,6 +192,22 @@ public class JsonTests {
         }
     }
 
+    public static class Measure {
+        public long total;
+        public double ratio;
+        public int count;
+        public boolean valid;
+        private int scale;
+
+        public int getScale() {
+            return scale;
+        }
+
+        public void setScale(int scale) {
+            this.scale = scale;
+        }
+    }
+
     private Person testPerson;
 
     @SuppressWarnings("deprecation")
@@ -251,6 +282,194 @@ public class JsonTests {
         assertTrue(sw1.toString().equals(sw2.toString()));
     }
 
+    @Test
+    public void testUtf8BufferBoundary() throws Exception {
+        // Longs ending at each offset around the end of the 8K buffer. Each
+        // write runs on a new thread so that it gets a fresh generator.
+        //
+        for (int len = 8150; len < 8200; len++) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("s", StringUtils.repeat('x', len));
+            m.put("n", 1234567890123456789L);
+
+            StringWriter sw = new StringWriter();
+            new JsonObjectWriter().write(sw, m);
+
+            String[] result = new String[1];
+            Thread t = new Thread(() -> result[0] = new JsonObjectWriter().write(m));
+            t.start();
+            t.join();
+            assertEquals(sw.toString(), result[0]);
+        }
+    }
+
+    @Test
+    public void testUtf8Output() {
+        testPerson.comment = " <>\"\',\n\r\t\u0001 \u00e9\u20ac\ud83d\ude00 ";
+        JsonObjectWriter out = new JsonObjectWriter();
+
+        StringWriter sw = new StringWriter();
+        out.write(sw, testPerson);
+        String expected = sw.toString();
+
+        // Stream, buffer and string output match the javax.json output.
+        //
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        out.write(bos, testPerson);
+        assertEquals(expected, new String(bos.toByteArray(), StandardCharsets.UTF_8));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+        out.write(buf, testPerson);
+        buf.flip();
+        assertEquals(expected, StandardCharsets.UTF_8.decode(buf).toString());
+
+        assertEquals(expected, out.write(testPerson));
+
+        // Strings longer than the generator's buffer.
+        //
+        testPerson.comment = StringUtils.repeat("plain ascii \u00e9\"\t", 2000);
+        sw = new StringWriter();
+        out.write(sw, testPerson);
+        bos.reset();
+        out.write(bos, testPerson);
+        assertEquals(sw.toString(), new String(bos.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(sw.toString(), out.write(testPerson));
+
+        // Field filters apply to the compiled fields.
+        //
+        JsonObjectWriter only = new JsonObjectWriter().only("phoneNumber.number");
+        sw = new StringWriter();
+        only.write(sw, testPerson);
+        assertEquals(sw.toString(), only.write(testPerson));
+        assertTrue(only.write(testPerson).contains("\"id\":101"));
+        assertTrue(!only.write(testPerson).contains("Mobile"));
+    }
+
+    @Test
+    public void testPrimitiveFields() {
+        Measure m = JsonObjectReader.asObject(
+                "{\"total\":9007199254740993,\"ratio\":0.25,\"count\":\"12\",\"valid\":true,\"scale\":3,\"other\":[1]}",
+                Measure.class);
+
+        assertEquals(9007199254740993L, m.total);
+        assertEquals(0.25, m.ratio, 0);
+        assertEquals(12, m.count);
+        assertTrue(m.valid);
+        assertEquals(3, m.getScale());
+    }
+
+    @Test
+    public void testTokenizer() {
+        testPerson.comment = "esc \\ \" \n \u0001 \u00e9\u20ac\ud83d\ude00 /";
+        String json = "[" + new JsonObjectWriter().write(testPerson).replace(",", " ,\n ")
+                + ",-0.5e-3,12345678901234567890,-9223372036854775808,0.1,-123.456e-7,1e23,9007199254740993.5"
+                + ",-0.0,0e99999,1.7976931348623157e308,4.9e-324]";
+        char[] chars = json.toCharArray();
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        // One character per read to split tokens across buffer refills.
+        //
+        StringReader sr = new StringReader(json);
+        JsonTokenizer slow = new JsonTokenizer(new FilterReader(sr) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        });
+
+        List<JsonParser> parsers = Arrays.asList(new JsonTokenizer(chars, 0, chars.length),
+                new JsonTokenizer(bytes, 0, bytes.length), new JsonTokenizer(new ByteArrayInputStream(bytes)),
+                new JsonTokenizer((ByteBuffer) ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()), slow);
+
+        JsonParser expected = Json.createParser(new StringReader(json));
+        while (expected.hasNext()) {
+            Event ev = expected.next();
+            for (JsonParser p : parsers) {
+                assertEquals(ev, p.next());
+                if (ev == Event.KEY_NAME || ev == Event.VALUE_STRING) {
+                    assertEquals(expected.getString(), p.getString());
+                } else if (ev == Event.VALUE_NUMBER) {
+                    assertEquals(expected.getBigDecimal(), p.getBigDecimal());
+                    assertEquals(expected.isIntegralNumber(), p.isIntegralNumber());
+                    assertEquals(expected.getLong(), p.getLong());
+                    assertEquals(expected.getBigDecimal().doubleValue(), ((JsonTokenizer) p).getDouble(), 0);
+                }
+            }
+        }
+        for (JsonParser p : parsers) {
+            assertTrue(!p.hasNext());
+        }
+
+        Person copy = new JsonObjectReader().readObject(ByteBuffer.wrap(new JsonObjectWriter().write(testPerson)
+                .getBytes(StandardCharsets.UTF_8)), Person.class);
+        testPerson.testEquals(copy);
+    }
+
+    @Test
+    public void testTokenizerTrailing() {
+        for (String json : new String[] { "{} x", "[1]]", "1 2", "\"a\"\"b\"" }) {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            for (JsonTokenizer p : Arrays.asList(new JsonTokenizer(json.toCharArray(), 0, json.length()),
+                    new JsonTokenizer(bytes, 0, bytes.length))) {
+                try {
+                    while (p.hasNext()) {
+                        p.next();
+                    }
+                    fail(json);
+                } catch (JsonParsingException e) {
+                    // expected
+                }
+            }
+        }
+
+        JsonTokenizer p = new JsonTokenizer(new StringReader(" [1] \n"));
+        assertEquals(Event.START_ARRAY, p.next());
+        assertEquals(Event.VALUE_NUMBER, p.next());
+        assertEquals(Event.END_ARRAY, p.next());
+        assertTrue(!p.hasNext());
+    }
+
+    @Test
+    public void testKeyNames() {
+        Map<String, Object> m1 = JsonObjectReader.asMap("{\"customerId\":1,\"items\":[]}");
+        Map<String, Object> m2 = JsonObjectReader.asMap(new StringReader("{\"customerId\":2}"));
+
+        // Both maps share the canonical key.
+        //
+        String k1 = m1.keySet().stream().filter(k -> k.equals("customerId")).findFirst().get();
+        String k2 = m2.keySet().iterator().next();
+        assertTrue(k1 == k2);
+        assertEquals("2", m2.get(k2));
+    }
+
+    @Test
+    public void testFieldFilters() {
+        String json = new JsonObjectWriter().only("name", "phoneNumber.type.typeId").write(testPerson);
+        assertTrue(json.contains("\"typeId\":\"Mobile\""));
+        assertTrue(!json.contains("0999-1999"));
+
+        // Filter paths relative to the data object.
+        //
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", "ok");
+        response.put("data", testPerson);
+
+        JsonObjectWriter out = new JsonObjectWriter().only("phoneNumber.number");
+        out.setFilterContextPath("data.");
+        json = out.write(response);
+        assertTrue(json.contains("\"status\":\"ok\""));
+        assertTrue(json.contains("0999-1999"));
+        assertTrue(!json.contains("Joe Foo"));
+        assertTrue(!json.contains("Mobile"));
+
+        out = new JsonObjectWriter().except("comment", "phoneNumber.type");
+        out.setFilterContextPath("data.");
+        json = out.write(response);
+        assertTrue(json.contains("Joe Foo"));
+        assertTrue(!json.contains("\"comment\""));
+        assertTrue(!json.contains("Mobile"));
+    }
+
     @Test
     public void testJsonAdaptors() {
         StringWriter sw1 = new StringWriter();